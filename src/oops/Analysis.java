@@ -0,0 +1,116 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops;
+
+import java.util.concurrent.TimeUnit;
+
+import oops.util.ClassNameSet;
+import oops.util.ConcurrentDependencyVisitor;
+
+/**
+ * A handle on an analysis running in the background, returned by
+ * {@link Analyzer#start()}.  The analysis can be cancelled at any time, and
+ * stops by itself once the Analyzer's timeout passes.  Either way it ends
+ * with the results found so far, and its threads have stopped and its
+ * class path is released by the time the results are available.
+ */
+public class Analysis {
+    private final Analyzer analyzer;
+    private final ConcurrentDependencyVisitor results;
+    private final Thread worker;
+
+    Analysis(Analyzer analyzer, ConcurrentDependencyVisitor results) {
+        this.analyzer = analyzer;
+        this.results = results;
+        this.worker = new Thread(analyzer, "oops-analysis");
+        worker.setDaemon(true);
+    }
+
+    void start() {
+        worker.start();
+    }
+
+    /**
+     * Stop the analysis.  Classes not yet processed are dropped and the
+     * results hold whatever was found before.
+     */
+    public void cancel() {
+        analyzer.cancel();
+    }
+
+    /**
+     * Wait for the analysis to end, including its teardown.
+     * @param timeout the longest time to wait
+     * @param unit the unit of timeout
+     * @return true if the analysis ended, false if the time ran out first
+     * @throws InterruptedException
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return results.await(timeout, unit);
+    }
+
+    /**
+     * @return true if the analysis has ended, whether or not it finished
+     */
+    public boolean isDone() {
+        return results.isEnded();
+    }
+
+    /**
+     * @return true if the analysis ran to the end without being cancelled
+     * or timing out; results are partial otherwise
+     */
+    public boolean isComplete() {
+        return isDone() && !analyzer.isCancelled();
+    }
+
+    /**
+     * Return the classes that could not be found.  This method blocks until
+     * the analysis ends; the interrupt of a waiting thread cancels it.
+     * @return the failed class names
+     * @throws InterruptedException
+     */
+    public ClassNameSet getFailures() throws InterruptedException {
+        try {
+            return results.getFailureSet();
+        } catch (InterruptedException ie) {
+            cancel();
+            throw ie;
+        }
+    }
+
+    /**
+     * Return the classes that were found.  This method blocks until the
+     * analysis ends; the interrupt of a waiting thread cancels it.
+     * @return the successful class names
+     * @throws InterruptedException
+     */
+    public ClassNameSet getSuccesses() throws InterruptedException {
+        try {
+            return results.getSuccessSet();
+        } catch (InterruptedException ie) {
+            cancel();
+            throw ie;
+        }
+    }
+}
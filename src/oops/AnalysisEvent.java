@@ -0,0 +1,74 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops;
+
+/**
+ * One result of an analysis, as published by an {@link AnalysisPublisher}.
+ */
+public final class AnalysisEvent {
+    /**
+     * The kinds of analysis events.
+     */
+    public enum Kind {
+        /** A class was found. */
+        SUCCESS,
+        /** A class could not be found. */
+        FAILURE,
+        /** A class refers to another. */
+        REFERENCE;
+    }
+
+    private final Kind kind;
+    private final String name;
+    private final String referrer;
+
+    AnalysisEvent(Kind kind, String name, String referrer) {
+        this.kind = kind;
+        this.name = name;
+        this.referrer = referrer;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the fully qualified name of the class the event is about
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the fully qualified name of the referring class of a
+     * REFERENCE event, otherwise null
+     */
+    public String getReferrer() {
+        return referrer;
+    }
+
+    @Override
+    public String toString() {
+        return referrer == null ? kind + " " + name : kind + " " + referrer + " -> " + name;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publishes the results of an analysis as they are found.  The analysis
+ * starts when a subscriber subscribes, and only one subscriber is allowed.
+ * <p>
+ * Events pass through a bounded buffer.  Once the buffer is full, the
+ * analysis threads wait for the subscriber to request more, so a slow
+ * subscriber slows the traversal down instead of letting results pile up in
+ * memory.  Cancelling the subscription cancels the analysis.  An analysis
+ * cut short by its timeout, its fail-fast limit or {@link Analyzer#cancel()}
+ * ends with a {@link CancellationException} rather than onComplete(), since
+ * its events are not the whole result.
+ */
+public class AnalysisPublisher implements Flow.Publisher<AnalysisEvent> {
+    private static final AnalysisEvent END = new AnalysisEvent(AnalysisEvent.Kind.SUCCESS, null, null);
+
+    private final Analyzer analyzer;
+    private final boolean references;
+    private final BlockingQueue<AnalysisEvent> buffer;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param analyzer the analyzer to run; its visitor is replaced
+     * @param bufferSize the number of events held for a subscriber that has
+     * not requested them yet
+     * @param references whether to publish REFERENCE events as well as the
+     * found and missing classes
+     */
+    public AnalysisPublisher(Analyzer analyzer, int bufferSize, boolean references) {
+        this.analyzer = analyzer;
+        this.references = references;
+        this.buffer = new ArrayBlockingQueue<AnalysisEvent>(bufferSize);
+    }
+
+    public void subscribe(Flow.Subscriber<? super AnalysisEvent> subscriber) {
+        if (subscriber == null) throw new NullPointerException();
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {}
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("An analysis can only be published to one subscriber"));
+            return;
+        }
+        Delivery delivery = new Delivery(subscriber);
+        analyzer.setDependencyVisitor(references ? new Producer.WithReferences(delivery) : new Producer(delivery));
+        subscriber.onSubscribe(delivery);
+
+        Thread worker = new Thread(analyzer, "oops-analysis");
+        worker.setDaemon(true);
+        worker.start();
+        Thread deliverer = new Thread(delivery, "oops-publisher");
+        deliverer.setDaemon(true);
+        delivery.thread = deliverer;
+        deliverer.start();
+    }
+
+    /**
+     * Feeds the buffer from the analysis threads, waiting while it is full.
+     */
+    private static class Producer implements DependencyVisitor {
+        final Delivery delivery;
+
+        Producer(Delivery delivery) {
+            this.delivery = delivery;
+        }
+
+        public void success(String name) {
+            delivery.offer(new AnalysisEvent(AnalysisEvent.Kind.SUCCESS, name, null));
+        }
+
+        public void fail(String name) {
+            delivery.offer(new AnalysisEvent(AnalysisEvent.Kind.FAILURE, name, null));
+        }
+
+        public void end() {
+            delivery.offer(END);
+        }
+
+        static class WithReferences extends Producer implements ReferenceVisitor {
+            WithReferences(Delivery delivery) {
+                super(delivery);
+            }
+
+            public void reference(String referrer, String name) {
+                delivery.offer(new AnalysisEvent(AnalysisEvent.Kind.REFERENCE, name, referrer));
+            }
+        }
+    }
+
+    /**
+     * Hands buffered events to the subscriber as it requests them, on a
+     * thread of its own.
+     */
+    private class Delivery implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super AnalysisEvent> subscriber;
+        private final Object lock = new Object();
+        private long demand;
+        private volatile boolean cancelled;
+        private Throwable error;
+        volatile Thread thread;
+
+        Delivery(Flow.Subscriber<? super AnalysisEvent> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        public void request(long n) {
+            synchronized (lock) {
+                if (n > 0) {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    lock.notifyAll();
+                    return;
+                }
+                //a bad request ends the subscription with an error
+                error = new IllegalArgumentException("Non-positive request: " + n);
+            }
+            cancel();
+        }
+
+        public void cancel() {
+            synchronized (lock) {
+                cancelled = true;
+                lock.notifyAll();
+            }
+            analyzer.cancel();
+            //the end of a cancelled analysis is dropped, so wake the
+            //deliverer if it is waiting for events
+            Thread deliverer = thread;
+            if (deliverer != null && deliverer != Thread.currentThread()) deliverer.interrupt();
+        }
+
+        void offer(AnalysisEvent event) {
+            if (cancelled) return;
+            try {
+                buffer.put(event);
+            } catch (InterruptedException ie) {
+                //the pool is being shut down; the event is dropped
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public void run() {
+            boolean completed = false;
+            try {
+                while (!cancelled) {
+                    AnalysisEvent event = buffer.take();
+                    if (event == END) {
+                        completed = true;
+                        break;
+                    }
+                    synchronized (lock) {
+                        while (demand == 0 && !cancelled) lock.wait();
+                        if (cancelled) break;
+                        --demand;
+                    }
+                    subscriber.onNext(event);
+                }
+            } catch (InterruptedException ie) {
+                //stop delivering
+            } catch (RuntimeException re) {
+                //a subscriber that throws is taken to have cancelled
+            }
+            if (completed && !cancelled) {
+                if (!analyzer.isCancelled()) {
+                    subscriber.onComplete();
+                } else if (analyzer.isFailedFast()) {
+                    subscriber.onError(new CancellationException("The analysis stopped at its failure limit"));
+                } else {
+                    subscriber.onError(new CancellationException("The analysis was cancelled or timed out"));
+                }
+                return;
+            }
+            cancelled = true;
+            analyzer.cancel();
+            //release any analysis thread waiting on a full buffer
+            buffer.clear();
+            if (error != null) subscriber.onError(error);
+        }
+    }
+}
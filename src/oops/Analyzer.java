@@ -26,35 +26,47 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Enumeration;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+import oops.checkpoint.CheckpointLog;
+import oops.classpath.ClassBuffer;
+import oops.classpath.ClassPath;
+import oops.classpath.ClassSource;
+import oops.classpath.DirectorySource;
+import oops.classpath.ListableSource;
+import oops.classpath.LoaderSource;
+import oops.classpath.PlatformIndex;
+import oops.format.RecordWriter;
+import oops.linkage.LinkageChecker;
+import oops.matrix.DependencyMatrix;
+import oops.shard.Shard;
+import oops.shard.ShardCoordinator;
+import oops.trace.Trace;
+import oops.util.ClassIndex;
+import oops.util.ClassStateTable;
 import oops.util.ConcurrentDependencyVisitor;
-
-import org.objectweb.asm.AnnotationVisitor;
-import org.objectweb.asm.Attribute;
-import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.ClassVisitor;
-import org.objectweb.asm.FieldVisitor;
-import org.objectweb.asm.Label;
-import org.objectweb.asm.MethodVisitor;
-import org.objectweb.asm.Type;
+import oops.util.PoolSizer;
+import oops.util.ReferenceCache;
 
 /**
  * The Oops! main program, which is used to verify that there are no
@@ -69,39 +81,103 @@ import org.objectweb.asm.Type;
  * which implies verbose.  But in this case, when a class is processed its name is
  * printed to STDOUT, and if it fails, its name is printed to STDERR. By default,
  * Oops! only prints failed dependencies.  That means no output is a good thing!
+ * Add "--classpath" or "-c" followed by a class path to analyze that class path
+ * instead of the one Oops! itself was started with, and "--jdk" or "-j" followed
+ * by a Java installation directory to check against that platform.  Add
+ * "--linkage" or "-k" to also report field and method references that
+ * would fail to link, and "--fail-fast" or "-f" followed by a number to stop
+ * after that many failures.  With fail-fast, the exit status tells whether
+ * all classes were found (0), some were missing ({@link #EXIT_FAILURES}) or
+ * the run stopped at the limit ({@link #EXIT_FAIL_FAST}).  Add "--format"
+ * followed by "jsonl" or "binary" to write a record for every class, with
+ * the class path entry it came from and the class that referred to it;
+ * unresolved members and the "--matrix" counts are then printed to STDERR,
+ * out of the records.
+ * Add "--shards" followed by a number to split the analysis across that
+ * many worker processes, which cannot be combined with linkage checks,
+ * checkpoints or the matrix.  Add "--checkpoint" followed by a file to log
+ * progress to it, and to resume from it when run again.  Add "--trace"
+ * followed by trace categories, and optionally "--trace-prefix" followed by
+ * class name prefixes, to dump a trace of class parsing to standard err;
+ * see {@link Trace}.  Add "--matrix" to print how often each class path
+ * entry refers to each other one, and the entries nothing refers to; see
+ * {@link DependencyMatrix}.
  */
 public class Analyzer implements Runnable {
-    private final BlockingQueue<String> discoveries = new LinkedBlockingQueue<String>();
-    private final ConcurrentMap<String, Boolean> analysis = new ConcurrentHashMap<String, Boolean>();
-    private final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 4);
+    private final BlockingQueue<Discovery> discoveries = new LinkedBlockingQueue<Discovery>();
+    private final ClassIndex classes = new ClassIndex();
+    private final ClassStateTable analysis = new ClassStateTable();
+    private final ClassPath classpath;
+    private final boolean ownsClasspath;
+    private final int cores = Runtime.getRuntime().availableProcessors();
+    private final PoolSizer sizer = new PoolSizer(cores, cores, cores * 16);
+    private final ThreadPoolExecutor pool = newPool(cores * 4);
+    private final AtomicLong sequence = new AtomicLong();
     private final AtomicBoolean interruptFlag = new AtomicBoolean(false);
+    private volatile boolean cancelled;
+    private volatile long timeout;
+    private volatile int failFast;
+    private volatile boolean failedFast;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile LinkageChecker linkage;
+    private volatile Shard shard;
+    private volatile CheckpointLog checkpoint;
+    private volatile ReferenceCache referenceCache = sharedCache;
+    private volatile DependencyMatrix matrix;
+    private static volatile ReferenceCache sharedCache;
+    private final ThreadLocal<ReferenceExtractor> extractors = new ThreadLocal<ReferenceExtractor>() {
+        @Override
+        protected ReferenceExtractor initialValue() {
+            ReferenceExtractor extractor = new ReferenceExtractor();
+            if (linkage != null) extractor.setRecorder(linkage.newRecorder());
+            return extractor;
+        }
+    };
     
-    private static final Pattern CLSID = Pattern.compile("\\[*?L(.*?(/.*?)*);");
+    /** Exit status of a fail-fast run that found missing classes. */
+    public static final int EXIT_FAILURES = 1;
+    /** Exit status of a fail-fast run stopped at its failure limit. */
+    public static final int EXIT_FAIL_FAST = 2;
+    /** Exit status of a command line that combines options wrongly. */
+    public static final int EXIT_USAGE = 3;
     
-    protected final ClassVisitor CLS_FINDER = new ClassReferenceFinder();
-    protected final MethodVisitor MTD_FINDER = new MethodReferenceFinder();
-    protected final FieldVisitor FLD_FINDER = new FieldReferenceFinder();
-    protected final AnnotationVisitor ANT_FINDER = new AnnotationReferenceFinder();
+    private static final long TEARDOWN_SECONDS = 5;
+    private static final long RESIZE_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final long CHECKPOINT_NANOS = TimeUnit.SECONDS.toNanos(5);
     
     protected DependencyVisitor visitor = new DefaultDependencyVisitor(OutputStyle.STANDARD);
+    protected LinkageVisitor linkageVisitor;
     
-    protected Logger logger = Logger.getLogger(Analyzer.class.getName());
+    //created when logging is turned on, since the logging framework is
+    //slow to start up
+    protected Logger logger;
     protected boolean log = false;
     
-    private static final boolean TRACE_ALL   = false;
-    private static final boolean TRACE_FIELD = false | TRACE_ALL;
-    private static final boolean TRACE_ANNT  = false | TRACE_ALL;
-    private static final boolean TRACE_MTHD  = false | TRACE_ALL;
-    private static final boolean TRACE_CLASS = false | TRACE_ALL;
-    
+    /**
+     * Create a pool that runs queued tasks by priority rather than in the
+     * order they were queued.  Tasks must be run with execute(), since
+     * submit() would wrap them and lose their ordering.
+     */
+    private static ThreadPoolExecutor newPool(int threads) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>());
+    }
     
+    /**
+     * Return the class of an object or object array type descriptor, such
+     * as "[Ljava/lang/String;".  Parsed by hand rather than with a regular
+     * expression, which costs a noticeable part of a short run to compile.
+     * @param desc the type descriptor
+     * @return the internal class name, or null for other descriptors
+     */
     protected static String extractClass(String desc) {
-        Matcher m = CLSID.matcher(desc);
-        if (m.matches()) {
-            if (m.group(1).length() == 1) return null;
-            return m.group(1);
-        }
-        return null;
+        int start = 0;
+        while (start < desc.length() && desc.charAt(start) == '[') ++start;
+        int end = desc.length() - 1;
+        if (end <= start || desc.charAt(start) != 'L' || desc.charAt(end) != ';') return null;
+        if (end - start == 2) return null;
+        return desc.substring(start + 1, end);
     }
     
     protected static String[] extractMethodClasses(String desc) {
@@ -128,6 +204,7 @@ public class Analyzer implements Runnable {
      * Set whether the Analyzer uses logging or not. Default false.
      */
     public void setLogging(boolean log) {
+        if (log && logger == null) logger = Logger.getLogger(Analyzer.class.getName());
         this.log = log;
     }
     
@@ -137,8 +214,8 @@ public class Analyzer implements Runnable {
      * @param logger The alternative logger to use.
      */
     public void setLogger(Logger logger) {
-        setLogging(true);
         this.logger = logger;
+        setLogging(true);
     }
     
     /**
@@ -150,11 +227,198 @@ public class Analyzer implements Runnable {
         this.visitor = visitor;
     }
     
+    /**
+     * Also check that every field and method referenced by the analyzed
+     * classes exists, and report the ones that do not to a visitor before
+     * the analysis ends.  Only classes read from class path entries have
+     * their references checked; classes seen through a class loader are
+     * platform classes and only supply members.  Call this before
+     * {@link #run()}.
+     * @param visitor the visitor to report unresolved members to, or null
+     * to check classes only
+     */
+    public void setLinkageVisitor(LinkageVisitor visitor) {
+        this.linkageVisitor = visitor;
+        this.linkage = visitor == null ? null : new LinkageChecker();
+    }
+    
+    /**
+     * Stop the analysis once it has run for a while.  Work still queued is
+     * dropped and the visitor sees only the classes processed in time.
+     * @param timeout the time allowed from the start of {@link #run()}, or
+     * zero for no limit
+     * @param unit the unit of timeout
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        this.timeout = unit.toNanos(timeout);
+    }
+    
+    /**
+     * Stop the analysis as soon as a number of classes have failed.  Only
+     * that many failures are reported; the analysis is cancelled after the
+     * last one.
+     * @param limit the number of failures to stop at, or zero to analyze
+     * everything
+     */
+    public void setFailFast(int limit) {
+        this.failFast = limit;
+    }
+    
+    /**
+     * @return true if the analysis stopped because it reached the fail-fast
+     * limit
+     */
+    public boolean isFailedFast() {
+        return failedFast;
+    }
+    
+    /**
+     * @return the number of classes that failed so far
+     */
+    public int getFailureCount() {
+        return Math.min(failures.get(), failFast > 0 ? failFast : Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Stop the analysis.  Queued classes are dropped, running tasks are
+     * interrupted, and {@link #run()} returns once the pool has stopped.
+     * The visitor still receives end().
+     */
+    public void cancel() {
+        cancelled = true;
+        interruptFlag.set(true);
+    }
+    
+    /**
+     * @return true if the analysis was cancelled or ran out of time
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
+    /**
+     * Run the analysis on a background thread.  The results are collected
+     * by the returned handle, replacing any visitor set before.
+     * @return the handle on the running analysis
+     */
+    public Analysis start() {
+        ConcurrentDependencyVisitor results = new ConcurrentDependencyVisitor();
+        setDependencyVisitor(results);
+        Analysis handle = new Analysis(this, results);
+        handle.start();
+        return handle;
+    }
+    
+    /**
+     * Analyze only the classes a shard owns, as one process of a sharded
+     * analysis.  References to other classes are forwarded to the shard,
+     * and the analysis only ends when the shard says so.  Call this before
+     * {@link #run()}.
+     * @param shard the shard, or null to analyze everything
+     */
+    public void setShard(Shard shard) {
+        this.shard = shard;
+    }
+    
+    /**
+     * Log every finished class to a checkpoint, and resume from the classes
+     * it already holds.  Those classes are reported to the visitor again
+     * without being read, and the classes they refer to that were never
+     * finished are queued again.  The log is flushed every few seconds and
+     * when the analysis ends, but not closed.  Call this before
+     * {@link #run()}.  Classes resumed from the log are not checked for
+     * linkage, but count towards the fail-fast limit.
+     * @param checkpoint the log, or null to keep none
+     */
+    public void setCheckpoint(CheckpointLog checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+    
+    /**
+     * Bound the number of threads classes are read and parsed with.  The
+     * pool starts at four threads per processor and is resized while the
+     * analysis runs, from the time classes take to read against the time
+     * they take to parse.  The default bounds are one to sixteen threads
+     * per processor.
+     * @param min the fewest threads
+     * @param max the most threads
+     */
+    public void setPoolBounds(int min, int max) {
+        sizer.setBounds(min, max);
+        setPoolSize(Math.max(min, Math.min(max, pool.getCorePoolSize())));
+    }
+    
+    /**
+     * @return the number of threads classes are currently analyzed with
+     */
+    public int getPoolSize() {
+        return pool.getCorePoolSize();
+    }
+    
+    private synchronized void setPoolSize(int size) {
+        //the maximum may never drop below the core size
+        if (size > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(size);
+            pool.setCorePoolSize(size);
+        } else {
+            pool.setCorePoolSize(size);
+            pool.setMaximumPoolSize(size);
+        }
+    }
+    
+    /**
+     * Count the references between class path entries as classes are
+     * parsed.  Call this before {@link #run()}.
+     * @param matrix the matrix, built for this analyzer's class path, or
+     * null to count nothing
+     */
+    public void setDependencyMatrix(DependencyMatrix matrix) {
+        this.matrix = matrix;
+    }
+    
+    /**
+     * Look up the references of classes in a cache before parsing them, and
+     * cache the classes parsed.  Classes are parsed regardless while linkage
+     * is checked, which needs more than their references.
+     * @param cache the cache, or null to parse every class
+     */
+    public void setReferenceCache(ReferenceCache cache) {
+        this.referenceCache = cache;
+    }
+    
+    /**
+     * Set the reference cache every analyzer created from now on starts
+     * with, so that analyses in the same process share parsed classes.
+     * @param cache the cache, or null for analyzers to parse every class
+     */
+    public static void setSharedReferenceCache(ReferenceCache cache) {
+        sharedCache = cache;
+    }
+    
+    /**
+     * @return the reference cache new analyzers start with, or null
+     */
+    public static ReferenceCache getSharedReferenceCache() {
+        return sharedCache;
+    }
+    
+    /**
+     * Publish the results of this analyzer as they are found.  The analysis
+     * runs once a subscriber subscribes, replacing any visitor set before.
+     * @param bufferSize the number of events to hold for a subscriber before
+     * the analysis waits for it
+     * @param references whether to publish class references as well
+     * @return the publisher
+     */
+    public Flow.Publisher<AnalysisEvent> publish(int bufferSize, boolean references) {
+        return new AnalysisPublisher(this, bufferSize, references);
+    }
+    
     /**
      * Construct an analyzer which reads the entire classpath.
      */
     public Analyzer() {
-        addClasspath();
+        this(null, false);
     }
     
     /**
@@ -162,6 +426,7 @@ public class Analyzer implements Runnable {
      * @param clazz - the fully qualified class name
      */
     public Analyzer(String clazz) {
+        this(null, true);
         addClass(clazz);
     }
     
@@ -170,64 +435,216 @@ public class Analyzer implements Runnable {
      * @param classes - the fully qualified class names
      */
     public Analyzer(String... classes) {
+        this(null, true);
+        addClass(classes);
+    }
+    
+    /**
+     * Construct an analyzer which reads every class in a target class path
+     * instead of the class path of the running JVM.  Classes are resolved
+     * only from the target class path and the platform classes.  The class
+     * path is not closed when the analysis ends, so it can be shared by
+     * several analyses, including concurrent ones.
+     * @param classpath the class path to analyze
+     */
+    public Analyzer(ClassPath classpath) {
+        this(classpath, false);
+    }
+    
+    /**
+     * Construct an analyzer for a list of classes, resolved against a
+     * target class path.
+     * @param classpath the class path to resolve classes from
+     * @param classes - the fully qualified class names
+     */
+    public Analyzer(ClassPath classpath, String... classes) {
+        this(classpath, true);
         addClass(classes);
     }
     
     /**
      * Construct an Analyzer with the option to skip parsing of
      * the class path upon instantiation.
+     * @param classpath the class path to use, or null for the class path of
+     * the running JVM
      * @param skipDiscovery if true, do not process the class path
      */
-    private Analyzer(boolean skipDiscovery) {
+    private Analyzer(ClassPath classpath, boolean skipDiscovery) {
+        this.ownsClasspath = classpath == null;
+        this.classpath = ownsClasspath ? ClassPath.system() : classpath;
         if (!skipDiscovery) addClasspath();
     }
     
     public static void main(String... args) throws IOException {
-        //Create an analyzer, but use the private constructor
-        //to defer discover until we have processed the command
-        //line.
-        Analyzer m = new Analyzer(true);
-        
         //Check output style command line arguments
         String input = null;
+        String target = null;
+        String jdk = null;
+        boolean log = false;
+        boolean checkLinkage = false;
+        int failFast = 0;
+        int shards = 1;
+        String checkpointFile = null;
+        boolean printMatrix = false;
+        String trace = null;
+        String tracePrefix = null;
+        String format = null;
         OutputStyle output = OutputStyle.STANDARD;
-        if (args.length > 0) {
-            for (String arg : args) {
-                if (arg.equals("-v") || arg.equals("--verbose")) {
-                    output = OutputStyle.VERBOSE;
-                } else if (arg.equals("-s") || arg.equals("--split")) {
-                    output = OutputStyle.SPLIT;
-                } else if (arg.equals("-l") || arg.equals("--logger")) {
-                    m.setLogging(true);
-                } else if (arg.equals("-h") || arg.equals("--help")) {
-                    printUsageAndQuit();
-                } else {
-                    input = arg;
-                }
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if (arg.equals("-v") || arg.equals("--verbose")) {
+                output = OutputStyle.VERBOSE;
+            } else if (arg.equals("-s") || arg.equals("--split")) {
+                output = OutputStyle.SPLIT;
+            } else if (arg.equals("-l") || arg.equals("--logger")) {
+                log = true;
+            } else if (arg.equals("-k") || arg.equals("--linkage")) {
+                checkLinkage = true;
+            } else if ((arg.equals("-f") || arg.equals("--fail-fast")) && i + 1 < args.length) {
+                failFast = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--shards") && i + 1 < args.length) {
+                shards = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--matrix")) {
+                printMatrix = true;
+            } else if (arg.equals("--checkpoint") && i + 1 < args.length) {
+                checkpointFile = args[++i];
+            } else if (arg.equals("--trace") && i + 1 < args.length) {
+                trace = args[++i];
+            } else if (arg.equals("--trace-prefix") && i + 1 < args.length) {
+                tracePrefix = args[++i];
+            } else if (arg.equals("--format") && i + 1 < args.length) {
+                format = args[++i];
+            } else if ((arg.equals("-c") || arg.equals("--classpath")) && i + 1 < args.length) {
+                target = args[++i];
+            } else if ((arg.equals("-j") || arg.equals("--jdk")) && i + 1 < args.length) {
+                jdk = args[++i];
+            } else if (arg.equals("-h") || arg.equals("--help")) {
+                printUsageAndQuit();
+            } else {
+                input = arg;
             }
         }
         
+        //workers report only which classes they found, and each checks its
+        //own share of the class path
+        if (shards > 1 && checkLinkage) printUsageErrorAndQuit("--linkage cannot be used with --shards");
+        if (shards > 1 && checkpointFile != null) printUsageErrorAndQuit("--checkpoint cannot be used with --shards");
+        if (shards > 1 && printMatrix) printUsageErrorAndQuit("--matrix cannot be used with --shards");
+        
+        if (trace != null)
+            Trace.enable(Trace.parseCategories(trace), tracePrefix == null ? new String[0] : tracePrefix.split(","));
+        
+        //Create an analyzer, but defer discovery until we have
+        //processed the command line.
+        ClassPath classpath = null;
+        if (shards > 1) {
+            //the workers read the classes, this process only reports them
+            classpath = new ClassPath();
+        } else if (jdk != null) {
+            //check against the index of the given platform, never reading
+            //classes from the platform running this program
+            if (target == null) target = System.getProperty("java.class.path");
+            classpath = ClassPath.of(PlatformIndex.load(new File(jdk)), target.split(File.pathSeparator));
+        } else if (target != null) {
+            classpath = ClassPath.parse(target);
+        }
+        Analyzer m = new Analyzer(classpath, true);
+        m.setLogging(log);
+        m.setFailFast(failFast);
+        
         //Check discovery targets from command line arguments
+        List<String> roots = null;
         if (input == null) {
             //use the entire class path
-            m.addClasspath();
         } else if (input.equals("-")) {
             //read list of classes from command line
-            List<String> lines = new ArrayList<String>();
+            roots = new ArrayList<String>();
             String line = null;
             LineNumberReader lnr = new LineNumberReader(new InputStreamReader(System.in));
             while ((line = lnr.readLine()) != null) {
-                lines.add(line);
+                roots.add(line);
             }
-            m.addClass(lines.toArray(new String[lines.size()]));
         } else {
             //put the sole target class onto the search list
-            m.addClass(input);
+            roots = new ArrayList<String>();
+            roots.add(input);
         }
         
         //Register the "default" visitor and execute the task
-        m.visitor = m.new DefaultDependencyVisitor(output);
-        m.run();
+        RecordWriter records = null;
+        if (format == null || format.equals("text")) {
+            m.visitor = m.new DefaultDependencyVisitor(output);
+        } else {
+            //machine readable records of every class, written as they come
+            records = RecordWriter.forFormat(format, System.out);
+            m.visitor = records;
+        }
+        //keep the record stream clean of linkage text
+        if (checkLinkage) m.setLinkageVisitor(m.new DefaultLinkageVisitor(records == null ? output : OutputStyle.SPLIT));
+        boolean failedFast;
+        int failures;
+        if (shards > 1) {
+            //split the analysis across worker processes, then report the
+            //merged results in sorted order
+            ShardCoordinator coordinator = new ShardCoordinator(shards,
+                target == null ? System.getProperty("java.class.path") : target, jdk);
+            coordinator.setFailFast(failFast);
+            try {
+                coordinator.run(roots);
+            } catch (InterruptedException ie) {
+                m.classpath.close();
+                return;
+            }
+            for (String name : coordinator.getSuccesses()) m.visitor.success(name);
+            for (String name : coordinator.getFailures()) m.visitor.fail(name);
+            m.visitor.end();
+            failedFast = coordinator.isFailedFast();
+            failures = coordinator.getFailures().size();
+        } else {
+            CheckpointLog checkpoint = checkpointFile == null ? null : new CheckpointLog(new File(checkpointFile),
+                roots == null ? Collections.<String>emptyList() : roots, checkpointEntries(m.classpath));
+            m.setCheckpoint(checkpoint);
+            DependencyMatrix matrix = printMatrix ? new DependencyMatrix(m.classpath) : null;
+            m.setDependencyMatrix(matrix);
+            if (roots == null)
+                m.addClasspath();
+            else
+                m.addClass(roots.toArray(new String[roots.size()]));
+            m.run();
+            if (checkpoint != null) checkpoint.close();
+            if (matrix != null) matrix.print(records == null ? System.out : System.err);
+            failedFast = m.isFailedFast();
+            failures = m.getFailureCount();
+        }
+        if (!m.ownsClasspath) m.classpath.close();
+        if (Trace.getCategories() != 0) {
+            PrintWriter err = new PrintWriter(new OutputStreamWriter(System.err));
+            Trace.dump(err);
+            err.flush();
+        }
+        if (records != null && records.getError() != null) throw records.getError();
+        if (failFast > 0) {
+            if (failedFast) System.exit(EXIT_FAIL_FAST);
+            if (failures > 0) System.exit(EXIT_FAILURES);
+        }
+    }
+    
+    /**
+     * @return what identifies the class path in a checkpoint: the
+     * locations of its directories and jars, and the platform index
+     */
+    private static List<String> checkpointEntries(ClassPath classpath) {
+        List<String> entries = new ArrayList<String>();
+        for (ClassSource source : classpath.getSources()) {
+            if (source instanceof ListableSource) entries.add(source.getLocation());
+        }
+        if (classpath.getPlatformIndex() != null) entries.add(classpath.getPlatformIndex().getDescription());
+        return entries;
+    }
+    
+    private static void printUsageErrorAndQuit(String message) {
+        System.err.println("Oops! " + message + "; see --help");
+        System.exit(EXIT_USAGE);
     }
     
     private static void printUsageAndQuit() {
@@ -239,6 +656,25 @@ public class Analyzer implements Runnable {
             .append("\t-s, --split\tUse split output - print successes to STDOUT and failures to STDERR%n")
             .append("\t-l, --logger\tUse a java.util.Logger for output.  Successes at INFO level,%n")
             .append("\t            \tfailures at SEVERE level.  Incompatible with split output.%n")
+            .append("\t-c, --classpath <path>\tAnalyze <path> instead of the class path of this JVM%n")
+            .append("\t-j, --jdk <java.home>\tCheck platform classes against the JDK installed at <java.home>%n")
+            .append("\t            \tusing a cached index; platform classes are not traversed%n")
+            .append("\t-k, --linkage\tAlso report field and method references that do not resolve%n")
+            .append("\t-f, --fail-fast <n>\tStop after <n> missing classes; exit with 2 if stopped, 1 if%n")
+            .append("\t            \tclasses were missing and 0 if none were%n")
+            .append("\t--format <fmt>\tWrite a record for every class instead of text: 'jsonl' for%n")
+            .append("\t            \tJSON Lines or 'binary' for length-prefixed binary records;%n")
+            .append("\t            \tunresolved members and the matrix go to STDERR%n")
+            .append("\t--shards <n>\tSplit the analysis across <n> worker processes; not with%n")
+            .append("\t            \t--linkage, --checkpoint or --matrix%n")
+            .append("\t--trace <cats>\tTrace parsing to STDERR for the categories class, method, field%n")
+            .append("\t            \tand annotation, comma separated, or all%n")
+            .append("\t--trace-prefix <p>\tTrace only classes starting with one of the comma separated%n")
+            .append("\t            \tprefixes <p>%n")
+            .append("\t--checkpoint <file>\tLog finished classes to <file>, resuming from it if it%n")
+            .append("\t            \texists%n")
+            .append("\t--matrix\tPrint the number of references between class path entries,%n")
+            .append("\t            \tand the entries nothing refers to%n")
             .append("\t-h, --help\tPrint usage, do not execute.%n")
             .append("%n\tinputOpts:%n")
             .append("\t-\tRead list of classes from STDIN%n")
@@ -247,34 +683,165 @@ public class Analyzer implements Runnable {
             .append("%n\tExamples:%n")
             .append("\t-s - < classList.txt\t;Analyze classes from classList.txt, split output%n")
             .append("\t-v -l               \t;Analyze everything in the class path, verbose output with logger%n")
-            .append("\torg.pkg.Someclass   \t;Analyze only org.pkg.Someclass%n");
+            .append("\torg.pkg.Someclass   \t;Analyze only org.pkg.Someclass%n")
+            .append("\t-c app.jar%slib.jar \t;Analyze everything in app.jar and lib.jar%n")
+            .append("\t-f 1                \t;Stop at the first missing class%n");
         
-        String s = String.format(usage.toString(), File.pathSeparator);
+        String s = String.format(usage.toString(), File.pathSeparator, File.pathSeparator);
         System.out.print(s);
         System.exit(0);
     }
     
     /**
      * Execute the analysis event loop.  This method is interruptible.  Once
-     * an analysis has been run, the internal thread pool is shut down.
+     * an analysis has been run, the internal thread pool is shut down and
+     * has stopped by the time the visitor sees end().
      */
     public void run() {
+        long limit = timeout;
+        long deadline = System.nanoTime() + limit;
+        long resized = System.nanoTime();
+        long checkpointed = resized;
+        if (checkpoint != null) resume();
+        
         //Enter the event loop.
+        boolean complete = false;
         while(! interruptFlag.get()) {
+            if (limit > 0 && System.nanoTime() - deadline > 0) {
+                if (log) logger.warning("Analysis timed out, results are partial");
+                cancel();
+                break;
+            }
+            long now = System.nanoTime();
+            if (now - resized > RESIZE_NANOS) {
+                resized = now;
+                int size = pool.getCorePoolSize();
+                int next = sizer.resize(size);
+                if (next != size) setPoolSize(next);
+            }
+            if (checkpoint != null && now - checkpointed > CHECKPOINT_NANOS) {
+                checkpointed = now;
+                flushCheckpoint();
+            }
             try {
-                String next = discoveries.poll(1, TimeUnit.SECONDS);
-                if (next == null) break; //no more elements
-                if (next.trim().equals("")) continue;
-                pool.execute(new ClassDiscoverer(next));
+                Discovery discovery = discoveries.poll(10, TimeUnit.MILLISECONDS);
+                if (discovery == null) {
+                    //tasks queue their discoveries before they finish, so
+                    //once none are pending an empty queue stays empty
+                    if (pending.get() == 0 && discoveries.isEmpty()) {
+                        List<String> more = shard == null ? null : shard.idle();
+                        if (more != null) {
+                            for (String name : more) {
+                                discoveries.add(new Discovery(name, ClassPath.ROOT, null));
+                            }
+                            continue;
+                        }
+                        complete = true;
+                        break;
+                    }
+                    continue;
+                }
+                if (discovery.name.trim().equals("")) continue;
+                //only the first discovery of a class becomes a task
+                String next = discovery.name.replace('.', '/');
+                if (shard != null && !shard.owns(next)) {
+                    //listed classes of other shards are listed there too
+                    if (discovery.referrer != null) shard.forward(next);
+                    continue;
+                }
+                int id = classes.intern(next);
+                if (analysis.claim(id))
+                    submit(new ClassDiscoverer(next, id, discovery.priority, discovery.referrer));
             } catch (InterruptedException ie) {
+                cancel();
                 break;
             }
         }
         
-        //Terminate any remaining threads and signal shutdown
-        visitor.end();
+        //Terminate any remaining threads before releasing the class path
+        //they read from, then signal shutdown
+        if (complete) {
+            pool.shutdown();
+        } else {
+            cancelled = true;
+            pool.shutdownNow();
+        }
+        try {
+            if (!pool.awaitTermination(TEARDOWN_SECONDS, TimeUnit.SECONDS) && log)
+                logger.warning("Analysis threads did not stop within " + TEARDOWN_SECONDS + " seconds");
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        
+        //Every class has been recorded once no task is pending
+        if (complete && linkage != null) linkage.check(linkageVisitor);
+        if (checkpoint != null) flushCheckpoint();
+        
+        if (ownsClasspath) classpath.close();
         interruptFlag.set(false);
-        pool.shutdown();
+        visitor.end();
+    }
+    
+    /**
+     * Report the classes of the checkpoint as finished, and queue the
+     * classes they refer to.  Queued classes that have been finished since
+     * are skipped like any other.
+     */
+    private void resume() {
+        List<CheckpointLog.Entry> entries = checkpoint.getEntries();
+        if (entries.isEmpty()) return;
+        if (log) logger.info("Resuming " + entries.size() + " classes from " + checkpoint.getFile());
+        ReferenceVisitor edges = visitor instanceof ReferenceVisitor ? (ReferenceVisitor) visitor : null;
+        SourceVisitor sources = visitor instanceof SourceVisitor ? (SourceVisitor) visitor : null;
+        for (CheckpointLog.Entry entry : entries) {
+            int id = classes.intern(entry.getName());
+            analysis.claim(id);
+            analysis.compareAndSet(id, ClassStateTable.CLAIMED, entry.isFound() ? ClassStateTable.PARSED : ClassStateTable.FAILED);
+        }
+        for (CheckpointLog.Entry entry : entries) {
+            String outForm = entry.getName().replace('/', '.');
+            if (entry.isFound()) {
+                for (String type : entry.getReferences()) {
+                    if (edges != null) edges.reference(outForm, type.replace('/', '.'));
+                    addType(type, entry.getPriority(), outForm);
+                }
+                if (sources != null)
+                    sources.success(outForm, entry.getLocation(), entry.getReferrer());
+                else
+                    visitor.success(outForm);
+            } else {
+                int count = failures.incrementAndGet();
+                int limit = failFast;
+                if (sources != null)
+                    sources.fail(outForm, entry.getReferrer());
+                else
+                    visitor.fail(outForm);
+                //the same limit as for classes analyzed now
+                if (count == limit) {
+                    failedFast = true;
+                    cancel();
+                    return;
+                }
+            }
+        }
+    }
+    
+    private void flushCheckpoint() {
+        CheckpointLog current = checkpoint;
+        if (current == null) return;
+        try {
+            current.flush();
+        } catch (IOException ioe) {
+            checkpointFailed(ioe);
+        }
+    }
+    
+    /**
+     * Stop checkpointing after a write error; the analysis itself goes on.
+     */
+    private void checkpointFailed(IOException ioe) {
+        checkpoint = null;
+        if (log) logger.warning("Checkpointing stopped: " + ioe);
     }
     
     /**
@@ -287,12 +854,44 @@ public class Analyzer implements Runnable {
         m.run();
     }
     
+    /**
+     * Queue every class in the class path.  Each directory and jar is listed
+     * by its own pool task, and classes are queued as they are found, so
+     * analysis starts before the whole class path has been listed.
+     */
     protected void addClasspath() {
-        //map the class path and test it
-        String[] cpEntries = System.getProperty("java.class.path").split(File.pathSeparator);
-        for (String entry : cpEntries) {
-            processEntry(entry);
-        }        
+        if (log) {
+            for (String entry : classpath.getSkipped())
+                logger.warning("Cannot read the class path entry " + entry);
+        }
+        for (ClassSource source : classpath.getSources()) {
+            processEntry(source);
+        }
+    }
+    
+    /**
+     * Analyze dependencies for every class of a target class path with the
+     * given visitor.
+     * @param visitor the DependencyVisitor to use
+     * @param classpath the class path to analyze
+     */
+    public static void analyze(DependencyVisitor visitor, ClassPath classpath) {
+        Analyzer m = new Analyzer(classpath);
+        m.visitor = visitor;
+        m.run();
+    }
+    
+    /**
+     * Analyze dependencies for the specified classes, resolved against a
+     * target class path.
+     * @param visitor the DependencyVisitor to use
+     * @param classpath the class path to resolve classes from
+     * @param classes the array of classes to test
+     */
+    public static void analyze(DependencyVisitor visitor, ClassPath classpath, String... classes) {
+        Analyzer m = new Analyzer(classpath, classes);
+        m.visitor = visitor;
+        m.run();
     }
     
     /**
@@ -346,500 +945,323 @@ public class Analyzer implements Runnable {
         return getFailures(analyzer);
     }
     
-    private static Set<String> getFailures(Analyzer analyzer) throws InterruptedException {
-        ConcurrentDependencyVisitor visitor = new ConcurrentDependencyVisitor();
-        analyzer.setDependencyVisitor(visitor);
-        
-        Thread workerThread = new Thread(analyzer);
-        workerThread.setDaemon(true);
-        workerThread.start();
-        
-        try {
-            return visitor.getFailures();
-        } catch (InterruptedException ie) {
-            //we are the only owner of the worker thread, so we need
-            //to handle the interrupt for it as well.
-            workerThread.interrupt();
-            throw ie;
-        }
+    /**
+     * Analyze a target class path for failed dependencies.
+     * @param classpath the class path to analyze
+     * @return a set of failed class names
+     */
+    public static Set<String> analyze(ClassPath classpath) throws InterruptedException {
+        Analyzer analyzer = new Analyzer(classpath);
+        return getFailures(analyzer);
     }
     
-    protected void addClass(String... classes) {
-        for (String clazz : classes) { discoveries.add(clazz); }
+    /**
+     * Analyze a class or list of classes for failed dependencies, resolved
+     * against a target class path.
+     * @param classpath the class path to resolve classes from
+     * @param classes the list of classes to check
+     * @return a set of failed class names
+     */
+    public static Set<String> analyze(ClassPath classpath, String... classes) throws InterruptedException {
+        Analyzer analyzer = new Analyzer(classpath, classes);
+        return getFailures(analyzer);
     }
     
-    private void processEntry(String entry) {
-        File entryFile = new File(entry);
-        if (!entryFile.exists() || !entryFile.canRead()) {
-            if (log)
-                logger.warning("Cannot read the class path entry " + entry);
-            return;
-        }
-        if (entryFile.isDirectory()) {
-            processDirectory(entryFile, entryFile);
-        } else if (entryFile.isFile()) {
-            processJarFile(entryFile);
-        }
+    private static Set<String> getFailures(Analyzer analyzer) throws InterruptedException {
+        //the handle cancels the analysis if we are interrupted while waiting
+        return new HashSet<String>(analyzer.start().getFailures());
     }
     
-    private void processDirectory(File root, File dir) {
-        if (log)
-            logger.info("Discovered directory " + dir.getName() + " in " + root.getAbsolutePath());
-        File[] files = dir.listFiles();
-        for (File f : files) {
-            if (f.isDirectory()) {
-                //recurse other directories
-                processDirectory(root, f);
-            } else {
-                if (f.getName().endsWith(".class")) {
-                    if (log)
-                        logger.info("Discovered class file " + f.getAbsolutePath());
-                    //subtract the local filesystem gunk from the entry
-                    //and remove .class at the end
-                    String target = f.getAbsolutePath()
-                        .substring(root.getAbsolutePath().length())
-                        .replace(".class", "");
-                    
-                    //in case the OS directory separator is still hanging on
-                    //the front, get rid of it
-                    if (target.startsWith(File.separator)) target = 
-                        target.substring(File.separator.length());
-                    
-                    //switch the OS-specific separator to the one java expects
-                    target = target.replace(File.separator, "/");
-                    
-                    //add to our list of target classes
-                    discoveries.add(target);
-                }
-            }
-        }
+    protected void addClass(String... classes) {
+        for (String clazz : classes) { discoveries.add(new Discovery(clazz, ClassPath.ROOT, null)); }
     }
     
-    private void processJarFile(File jarFile) {
-        if (log)
-            logger.info("Discovered non-.class file " + jarFile.getAbsolutePath());
-        JarFile jf = null;
-        try { 
-            jf = new JarFile(jarFile);
-        } catch (IOException ioe) {
-            if (log)
-                logger.warning("File on classpath is neither .class or .jar file, skipping: " + jarFile.getAbsolutePath());
-            return;
-        }
-        
-        JarEntry je = null;
-        Enumeration<JarEntry> jarEntries = jf.entries();
-        while (jarEntries.hasMoreElements()) {
-            je = jarEntries.nextElement();
-            if (je.getName().endsWith(".class")) {
-                discoveries.add(je.getName().replace(".class", ""));
-            }
+    private void processEntry(ClassSource source) {
+        int priority = classpath.getPriority(source);
+        if (source instanceof DirectorySource) {
+            File root = ((DirectorySource) source).getRoot();
+            submit(new DirectoryLister(root.toPath(), root, "", priority));
+        } else if (source instanceof ListableSource) {
+            submit(new SourceLister((ListableSource) source, priority));
         }
     }
     
-    protected void addDescription(String desc) {
-        if (desc.contains("(") && desc.contains(")")) {
-            String[] types = Analyzer.extractMethodClasses(desc);
-            for (String t : types) {
-                if (t != null) addType(t);
-            }
-        } else {
-            String type = Analyzer.extractClass(desc);
-            if (type != null) addType(type);
+    /**
+     * Run a task in the pool, counting it as pending until it completes.
+     */
+    private void submit(Task task) {
+        pending.incrementAndGet();
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException ree) {
+            pending.decrementAndGet();
+            //listers may still hand out work while a cancelled pool stops
+            if (!pool.isShutdown()) throw ree;
         }
     }
     
     protected void addType(String type) {
+        addType(type, ClassPath.LIBRARY, null);
+    }
+    
+    /**
+     * Queue a referenced class.
+     * @param type the internal class name
+     * @param priority the priority of the class it was found in
+     * @param referrer the fully qualified name of the class it was found in
+     */
+    protected void addType(String type, int priority, String referrer) {
+        //skip the queue entirely for classes we have already claimed
+        int id = classes.get(type);
+        if (id >= 0 && analysis.get(id) != ClassStateTable.UNSEEN) return;
         try {
-            discoveries.put(type);
+            discoveries.put(new Discovery(type, classpath.priorityOf(type, priority), referrer));
         } catch (InterruptedException ie) {
             interruptFlag.compareAndSet(false, true);
         }
     }
     
     /**
-     * Find class references in Annotations.
+     * A class name waiting to be claimed, with the priority it was found at
+     * and the class that referred to it, if any.
      */
-    class AnnotationReferenceFinder implements AnnotationVisitor {
-        public void visit(String arg0, Object arg1) {
-            if (TRACE_ANNT) {
-                logger.entering(this.getClass().getName(), "visit");
-                logger.info("Params " + arg0 + " " + arg1);
-            }
-            // this could be a Class reference, so we should try to add it
-            addDescription(arg1.toString());
-        }
-
-        public AnnotationVisitor visitAnnotation(String name, String desc) {
-            if (TRACE_ANNT) {
-                logger.entering(this.getClass().getName(), "visitAnnotation");
-                logger.info("Params " + name + " " + desc);
-            }
-            addDescription(desc);
-            return this;
-        }
-
-        public AnnotationVisitor visitArray(String arg0) {
-            if (TRACE_ANNT) {
-                logger.entering(this.getClass().getName(), "visitArray");
-                logger.info("Params " + arg0);
-            }
-            return this;
-        }
-
-        public void visitEnd() {
-            if (TRACE_ANNT) {
-                logger.entering(this.getClass().getName(), "visitEnd");
-            }
-        }
-
-        public void visitEnum(String name, String desc, String value) {
-            if (TRACE_ANNT) {
-                logger.entering(this.getClass().getName(), "visitEnum");
-                logger.info("Params " + name + " " + desc + " " + value);
-            }
-            addDescription(desc);
+    private static class Discovery {
+        final String name;
+        final int priority;
+        final String referrer;
+        
+        Discovery(String name, int priority, String referrer) {
+            this.name = name;
+            this.priority = priority;
+            this.referrer = referrer;
         }
     }
     
     /**
-     * Find class references in Field declarations.
+     * A unit of work in the pool.  The analysis is over once the work queue
+     * is empty and no task is pending.  Tasks that start after the analysis
+     * was cancelled do nothing.  Queued tasks run lowest priority first,
+     * then in the order they were created.
      */
-    class FieldReferenceFinder implements FieldVisitor {
-        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
-            if (TRACE_FIELD) {
-                logger.entering(this.getClass().getName(), "visitAnnotation");
-                logger.info("Params " + desc + " " + visible);
-            }
-            addDescription(desc);
-            return ANT_FINDER;
+    abstract class Task implements Runnable, Comparable<Task> {
+        final int priority;
+        final long order = sequence.getAndIncrement();
+        
+        Task(int priority) {
+            this.priority = priority;
         }
-
-        public void visitAttribute(Attribute arg0) {
-            if (TRACE_FIELD) {
-                logger.entering(this.getClass().getName(), "visitAttribute");
-                logger.info("Params " + arg0);
-            }
-            //TODO: Needs implementation?
+        
+        public int compareTo(Task other) {
+            if (priority != other.priority) return priority < other.priority ? -1 : 1;
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
         }
         
-        public void visitEnd() {
-            if (TRACE_FIELD) {
-                logger.entering(this.getClass().getName(), "visitEnd");
+        public final void run() {
+            try {
+                if (!interruptFlag.get()) execute();
+            } finally {
+                pending.decrementAndGet();
             }
         }
+        
+        abstract void execute();
     }
     
     /**
-     * Find class references in Method implementations.
+     * Lists one class path directory, queueing its class files and
+     * handing each subdirectory to a task of its own.  Names are built up
+     * from the parent's prefix instead of being cut out of absolute paths.
      */
-    class MethodReferenceFinder implements MethodVisitor {
-
-        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitAnnotation");
-                logger.info("Params " + desc + " " + visible);
-            }
-            addDescription(desc);
-            return ANT_FINDER;
-        }
-
-        public AnnotationVisitor visitAnnotationDefault() {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitAnnotationDefault");
-            }
-            return ANT_FINDER;
-        }
-
-        public void visitAttribute(Attribute arg0) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitAttribute");
-                logger.info("Params " + arg0);
-            }
-            //TODO: needs implementation?
-        }
-
-        public void visitCode() {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitCode");
-            }
-        }
+    class DirectoryLister extends Task {
+        private final Path dir;
+        private final File root;
+        private final String prefix;
         
-        public void visitEnd() {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitEnd");
-            }
-        }
-
-        public void visitFieldInsn(int op, String owner, String name, String desc) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitFieldInsn");
-                logger.info("Params " + op + " " + owner + " " + name + " " + desc);
-            }
-            addType(owner);
-            addDescription(desc);
-        }
-
-        public void visitFrame(int arg0, int arg1, Object[] arg2, int arg3, Object[] arg4) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitFrame");
-                logger.info(String.format("Params %s %s", Arrays.toString(arg2), Arrays.toString(arg4)));
-            }
-        }
-        public void visitIincInsn(int arg0, int arg1) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitIincInsn");
-            }
-        }
-        public void visitInsn(int arg0) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitInsn");
-            }
-        }
-        public void visitIntInsn(int arg0, int arg1) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitIntInsn");
-            }
-        }
-        public void visitJumpInsn(int arg0, Label arg1) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitJumpInsn");
-                logger.info("Params " + arg1.toString());
-            }
-        }
-        public void visitLabel(Label arg0) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitLabel");
-                logger.info("Params " + arg0);
-            }
-        }
-
-        public void visitLdcInsn(Object insn) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitLdcInsn");
-                logger.info("Params " + insn.toString());
-            }
-
-            if (insn instanceof Type) {
-                addDescription(insn.toString());
-            }
-        }
-
-        public void visitLineNumber(int arg0, Label arg1) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitLineNumber");
-                logger.info("Params " + arg1.toString());
-            }
-        }
-
-        public void visitLocalVariable(String name, String desc, String sig, Label start, Label end, int index) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitLocalVariable");
-                logger.info(String.format("Params %s %s %s %s %s", name, desc, sig, start.toString(), end.toString()));
-            }
-            addDescription(desc);
-        }
-
-        public void visitLookupSwitchInsn(Label arg0, int[] arg1, Label[] arg2) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitLookupSwitchInsn");
-                logger.info(String.format("Params %s %s", arg0.toString(), Arrays.toString(arg2)));
-            }
-        }
-        public void visitMaxs(int arg0, int arg1) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitMaxs");
-            }
-        }
-
-        public void visitMethodInsn(int op, String owner, String name, String desc) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitMethodInsn");
-                logger.info(String.format("Params %s %s %s", owner, name, desc));
-            }
-
-            if (owner.startsWith("[") && owner.charAt(1) != 'L') return;
-            if (owner.endsWith(";")) {
-                addDescription(desc);
-            } else {
-                addType(owner);
-            }
+        DirectoryLister(Path dir, File root, String prefix, int priority) {
+            super(priority);
+            this.dir = dir;
+            this.root = root;
+            this.prefix = prefix;
         }
-
-        public void visitMultiANewArrayInsn(String type, int arg1) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitLookupSwitchInsn");
-                logger.info(String.format("Params %s", type));
-            }
-
-            addDescription(type);
-        }
-
-        public AnnotationVisitor visitParameterAnnotation(int param, String desc, boolean visible) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitParameterAnnotation");
-                logger.info(String.format("Params %s", desc));
-            }
-            
-            addDescription(desc);
-            return ANT_FINDER;
-        }
-
-        public void visitTableSwitchInsn(int arg0, int arg1, Label arg2, Label[] arg3) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitTableSwitchInsn");
-                logger.info(String.format("Params %s %s", arg2.toString(), Arrays.toString(arg3)));
-            }
-        }
-
-        public void visitTryCatchBlock(Label arg0, Label arg1, Label arg2, String type) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitTryCatchBlock");
-                logger.info(String.format("Params %s %s %s %s", arg0, arg1, arg2, type));
-            }
-            if (type != null) addType(type);
-        }
-
-        public void visitTypeInsn(int arg0, String type) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitTypeInsn");
-                logger.info(String.format("Params %s", type));
-            }
-            addDescription(type);
-        }
-
-        public void visitVarInsn(int arg0, int arg1) {
-            if (TRACE_MTHD) {
-                logger.entering(this.getClass().getName(), "visitVarInsn");
+        
+        void execute() {
+            if (log)
+                logger.info("Discovered directory " + dir.getFileName() + " in " + root.getAbsolutePath());
+            try {
+                DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+                try {
+                    for (Path path : stream) {
+                        if (interruptFlag.get()) break;
+                        String name = path.getFileName().toString();
+                        if (Files.isDirectory(path)) {
+                            submit(new DirectoryLister(path, root, prefix + name + "/", priority));
+                        } else if (name.endsWith(".class")) {
+                            if (log)
+                                logger.info("Discovered class file " + path.toAbsolutePath());
+                            discoveries.add(new Discovery(prefix + name.substring(0, name.length() - 6), priority, null));
+                        }
+                    }
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException ioe) {
+                if (log)
+                    logger.warning("Cannot list the directory " + dir + ": " + ioe.getMessage());
             }
         }
     }
     
     /**
-     * Find class references in Class descriptions.
+     * Lists the classes of a jar from its central directory, or of any
+     * other source that can list them.  A fat jar is split first, and each
+     * of its sources listed by a task of its own.
      */
-    class ClassReferenceFinder implements ClassVisitor {
-        public void visit(int ver, int access, String name, String sig, String supr, String[] ifcs) {
-            if (TRACE_CLASS) {
-                logger.entering(this.getClass().getName(), "visit");
-                logger.info(String.format("Params %s %s %s %s", name, sig, supr, Arrays.toString(ifcs)));
-            }
-            //Note: we do not need to add 'name' because visiting it implies we've already
-            //added it to our work queue.
-            if (supr != null) addType(supr);
-            for (String ifc : ifcs) {
-                addType(ifc);
-            }
-        }
-
-        public AnnotationVisitor visitAnnotation(String desc, boolean arg1) {
-            if (TRACE_CLASS) {
-                logger.entering(this.getClass().getName(), "visitAnnotation");
-                logger.info(String.format("Params %s", desc));
-            }
-            addDescription(desc);
-            return ANT_FINDER;
-        }
-
-        public void visitAttribute(Attribute arg0) {
-            if (TRACE_CLASS) {
-                logger.entering(this.getClass().getName(), "visitAttribute");
-                logger.info(String.format("Params %s", arg0.toString()));
-            }
-            //TODO: needs implementation?
-        }
-
-        public void visitEnd() {
-            if (TRACE_CLASS) {
-                logger.entering(this.getClass().getName(), "visitEnd");
-            }
-        }
-
-        public FieldVisitor visitField(int access, String name, String desc, String sig, Object value) {
-            if (TRACE_CLASS) {
-                logger.entering(this.getClass().getName(), "visitField");
-                logger.info(String.format("Params %s %s %s %s", name, desc, sig, (value == null) ? "null" : value.toString()));
-            }
-
-            addDescription(desc);
-            return FLD_FINDER;
-        }
-
-        public void visitInnerClass(String name, String outer, String inner, int access) {
-            if (TRACE_CLASS) {
-                logger.entering(this.getClass().getName(), "visitInnerClass");
-                logger.info(String.format("Params %s %s %s", name, outer, inner));
-            }
-
-            if (name != null) addType(name);
-            if (outer != null) addType(outer);
+    class SourceLister extends Task {
+        private final ListableSource source;
+        
+        SourceLister(ListableSource source, int priority) {
+            super(priority);
+            this.source = source;
         }
-
-        public MethodVisitor visitMethod(int access, String name, String desc, String sig, String[] expts) {
-            if (TRACE_CLASS) {
-                logger.entering(this.getClass().getName(), "visitMethod");
-                logger.info(String.format("Params %s %s %s %s", name, desc, sig, Arrays.toString(expts)));
-            }
-
-            if (desc != null && !name.equals("<init>")) addDescription(desc);
-            
-            if (expts != null) {
-                for (String expt : expts) {
-                    addType(expt);
+        
+        void execute() {
+            List<ClassSource> nested = classpath.split(source);
+            if (nested != null) {
+                for (ClassSource entry : nested) {
+                    processEntry(entry);
                 }
+                return;
             }
-            
-            return MTD_FINDER;
-        }
-
-        public void visitOuterClass(String owner, String name, String desc) {
-            if (TRACE_CLASS) {
-                logger.entering(this.getClass().getName(), "visitOuterClass");
-                logger.info(String.format("Params %s %s %s", owner, name, desc));
-            }
-
-            if (owner != null) addType(owner);
-        }
-
-        public void visitSource(String arg0, String arg1) {
-            if (TRACE_CLASS) {
-                logger.entering(this.getClass().getName(), "visitSource");
-                logger.info(String.format("Params %s %s", arg0, arg1));
+            if (log)
+                logger.info("Discovered non-.class file " + source.getLocation());
+            try {
+                for (String name : source.classNames()) {
+                    if (interruptFlag.get()) break;
+                    discoveries.add(new Discovery(name, priority, null));
+                }
+            } catch (IOException ioe) {
+                if (log)
+                    logger.warning("File on classpath is neither .class or .jar file, skipping: " + source.getLocation());
             }
         }
     }
     
     /**
      * Basic "bootstrap" class for integration with asm.  Works as a task
-     * unit in the thread pool.  Constructs an asm class reader, attempts
-     * to read the class name for this task, and reports success or fail
-     * to the visitor implementation.
+     * unit in the thread pool.  Reads the class bytes into the worker's
+     * reusable buffer, parses them with an asm class reader, and reports
+     * success or fail to the visitor implementation.
      */
-    class ClassDiscoverer implements Runnable {
+    class ClassDiscoverer extends Task {
         private final String next;
+        private final int id;
+        private final String referrer;
 
-        ClassDiscoverer(String next) {
-            //homogenize input formats to / format instead of .
-            if (next.contains("."))
-                this.next = next.replace('.', '/');
-            else this.next = next;
+        /**
+         * @param next the class name in / format
+         * @param id the class id, already claimed by the caller
+         * @param priority the priority the class was discovered at
+         * @param referrer the class that referred to it, or null
+         */
+        ClassDiscoverer(String next, int id, int priority, String referrer) {
+            super(priority);
+            this.next = next;
+            this.id = id;
+            this.referrer = referrer;
         }
         
-        public void run() {
+        void execute() {
             String outForm = next.replace('/', '.');
+            if (classpath.isPlatformClass(next)) {
+                //indexed platform classes exist and are not traversed
+                analysis.compareAndSet(id, ClassStateTable.CLAIMED, ClassStateTable.PARSED);
+                String description = classpath.getPlatformIndex().getDescription();
+                if (matrix != null) matrix.found(id, matrix.getPlatformEntry(), priority == ClassPath.ROOT);
+                record(ClassPath.PLATFORM, description, Collections.<String>emptyList());
+                success(outForm, description);
+                return;
+            }
+            ClassBuffer buffer = ClassBuffer.get();
+            long start = System.nanoTime();
+            ClassSource source = classpath.read(next, buffer);
+            long read = System.nanoTime();
+            if (source != null) {
+                ReferenceExtractor extractor = extractors.get();
+                LinkageChecker.Recorder recorder = extractor.getRecorder();
+                ReferenceCache cache = referenceCache;
+                List<String> references;
+                if (recorder != null) {
+                    recorder.begin(!(source instanceof LoaderSource));
+                    references = extractor.extract(buffer.getBytes(), 0, buffer.getLength());
+                    recorder.end();
+                } else if (cache != null) {
+                    references = cache.get(next, buffer.getBytes(), 0, buffer.getLength(), extractor);
+                } else {
+                    references = extractor.extract(buffer.getBytes(), 0, buffer.getLength());
+                }
+                sizer.record(read - start, System.nanoTime() - read);
+                //referenced classes are analyzed at the priority of the
+                //source this class actually came from
+                int found = classpath.getPriority(source);
+                ReferenceVisitor edges = visitor instanceof ReferenceVisitor ? (ReferenceVisitor) visitor : null;
+                DependencyMatrix counts = matrix;
+                int entry = counts == null ? -1 : counts.entryOf(source);
+                if (entry >= 0) counts.found(id, entry, priority == ClassPath.ROOT);
+                for (String type : references) {
+                    if (edges != null) edges.reference(outForm, type.replace('/', '.'));
+                    if (entry >= 0) counts.reference(entry, classes.intern(type));
+                    addType(type, found, outForm);
+                }
+                analysis.compareAndSet(id, ClassStateTable.CLAIMED, ClassStateTable.PARSED);
+                //logged once its references are queued, so a resume that
+                //skips this class still finds them
+                record(found, source.getLocation(), references);
+                success(outForm, source.getLocation());
+            } else {
+                sizer.record(read - start, 0);
+                //Mark class as processed
+                analysis.compareAndSet(id, ClassStateTable.CLAIMED, ClassStateTable.FAILED);
+                if (matrix != null) matrix.found(id, matrix.getMissingEntry(), priority == ClassPath.ROOT);
+                record(0, null, null);
+                int count = failures.incrementAndGet();
+                int limit = failFast;
+                //tasks already running may fail past the limit; drop them
+                if (limit > 0 && count > limit) return;
+                if (visitor instanceof SourceVisitor)
+                    ((SourceVisitor) visitor).fail(outForm, referrer);
+                else
+                    visitor.fail(outForm);
+                if (count == limit) {
+                    failedFast = true;
+                    cancel();
+                }
+            }
+        }
+        
+        /**
+         * Log the class to the checkpoint, if one is kept.
+         * @param references the classes it refers to, or null if it was
+         * not found
+         */
+        private void record(int priority, String location, List<String> references) {
+            CheckpointLog current = checkpoint;
+            if (current == null) return;
             try {
-                if (analysis.containsKey(next)) return;
-                analysis.putIfAbsent(next, false);
-                ClassReader cr = new ClassReader(next);
-                cr.accept(CLS_FINDER, ClassReader.EXPAND_FRAMES);
-                analysis.replace(next, false, true);
-                visitor.success(outForm);
+                if (references == null)
+                    current.missing(next, referrer);
+                else
+                    current.found(next, priority, location, referrer, references);
             } catch (IOException ioe) {
-                //Mark class as processed
-                analysis.putIfAbsent(next, false);
-                visitor.fail(outForm);
+                checkpointFailed(ioe);
             }
         }
+        
+        private void success(String outForm, String location) {
+            if (visitor instanceof SourceVisitor)
+                ((SourceVisitor) visitor).success(outForm, location, referrer);
+            else
+                visitor.success(outForm);
+        }
     }
 
     /**
@@ -891,6 +1313,37 @@ public class Analyzer implements Runnable {
             }
         }
     }
+    
+    /**
+     * Default linkage visitor for stand-alone execution.  Unresolved members
+     * are printed the same way as failed classes.
+     */
+    class DefaultLinkageVisitor implements LinkageVisitor {
+        private OutputStyle output = OutputStyle.STANDARD;
+        public DefaultLinkageVisitor(OutputStyle output) {
+            this.output = output;
+        }
+        
+        public void unresolved(String referrer, String method, String owner, String name, String desc) {
+            String member = String.format("%s.%s %s from %s.%s", owner, name, desc, referrer, method);
+            switch (output) {
+            case VERBOSE:
+                if (log)
+                    logger.severe("Unresolved: " + member);
+                else
+                    System.out.println("Unresolved: " + member);
+                break;
+            case SPLIT:
+                System.err.println(member);
+                break;
+            default:
+                if (log)
+                    logger.severe(member);
+                else
+                    System.out.println(member);
+            }
+        }
+    }
 }
 
 /**
@@ -0,0 +1,41 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops;
+
+/**
+ * This interface describes the visitor events for linkage checking.  It is
+ * told about every field or method reference that names an existing class
+ * but would fail to link, as a NoSuchFieldError or NoSuchMethodError would
+ * at run time.
+ */
+public interface LinkageVisitor {
+    /**
+     * Indicates a member reference that does not resolve.
+     * @param referrer the fully qualified name of the referring class
+     * @param method the name and descriptor of the referring method
+     * @param owner the fully qualified name of the class the reference names
+     * @param name the name of the field or method
+     * @param desc the descriptor of the field or method
+     */
+    void unresolved(String referrer, String method, String owner, String name, String desc);
+}
@@ -0,0 +1,364 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package oops;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import oops.linkage.LinkageChecker;
+import oops.trace.Trace;
+import oops.trace.TraceBuffer;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.Attribute;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+/**
+ * The Reference Extractor parses a single class file and lists the classes
+ * it refers to.  An extractor keeps its state between calls, so it must be
+ * confined to one thread; create one per worker thread and reuse it.
+ */
+public class ReferenceExtractor {
+    protected final ClassVisitor CLS_FINDER = new ClassReferenceFinder();
+    protected final MethodVisitor MTD_FINDER = new MethodReferenceFinder();
+    protected final FieldVisitor FLD_FINDER = new FieldReferenceFinder();
+    protected final AnnotationVisitor ANT_FINDER = new AnnotationReferenceFinder();
+    
+    private final List<String> references = new ArrayList<String>();
+    private final Set<String> seen = new HashSet<String>();
+    private LinkageChecker.Recorder recorder;
+    //the trace categories of the class being parsed, zero when untraced
+    private int trace;
+    private String traced;
+    private TraceBuffer traceBuffer;
+    
+    /**
+     * Parse a class and list the internal names of the classes it refers
+     * to, each one once, in the order they were found.  The returned list
+     * is reused by the next call.
+     * @param b the class file bytes
+     * @param off the start of the class file
+     * @param len the length of the class file
+     * @return the referenced class names
+     */
+    public List<String> extract(byte[] b, int off, int len) {
+        references.clear();
+        seen.clear();
+        trace = 0;
+        ClassReader cr = new ClassReader(b, off, len);
+        cr.accept(CLS_FINDER, ClassReader.EXPAND_FRAMES);
+        return references;
+    }
+    
+    /**
+     * Also pass the members and member references of each class to a
+     * linkage recorder.  The caller begins and ends each class on it.
+     * @param recorder the recorder, or null to record nothing
+     */
+    public void setRecorder(LinkageChecker.Recorder recorder) {
+        this.recorder = recorder;
+    }
+    
+    /**
+     * @return the linkage recorder, or null if none is used
+     */
+    public LinkageChecker.Recorder getRecorder() {
+        return recorder;
+    }
+    
+    private void trace(String event, Object a, Object b, Object c) {
+        if (traceBuffer == null) traceBuffer = Trace.newBuffer();
+        traceBuffer.record(traced, event, a, b, c);
+    }
+    
+    protected void addDescription(String desc) {
+        if (desc.contains("(") && desc.contains(")")) {
+            String[] types = Analyzer.extractMethodClasses(desc);
+            for (String t : types) {
+                if (t != null) addType(t);
+            }
+        } else {
+            String type = Analyzer.extractClass(desc);
+            if (type != null) addType(type);
+        }
+    }
+    
+    protected void addType(String type) {
+        if (seen.add(type)) references.add(type);
+    }
+    
+    /**
+     * Find class references in Annotations.
+     */
+    class AnnotationReferenceFinder implements AnnotationVisitor {
+        public void visit(String arg0, Object arg1) {
+            if ((trace & Trace.ANNOTATION) != 0) trace("annotation.visit", arg0, arg1, null);
+            // this could be a Class reference, so we should try to add it
+            addDescription(arg1.toString());
+        }
+
+        public AnnotationVisitor visitAnnotation(String name, String desc) {
+            if ((trace & Trace.ANNOTATION) != 0) trace("annotation.visitAnnotation", name, desc, null);
+            addDescription(desc);
+            return this;
+        }
+
+        public AnnotationVisitor visitArray(String arg0) {
+            if ((trace & Trace.ANNOTATION) != 0) trace("annotation.visitArray", arg0, null, null);
+            return this;
+        }
+
+        public void visitEnd() {
+            if ((trace & Trace.ANNOTATION) != 0) trace("annotation.visitEnd", null, null, null);
+        }
+
+        public void visitEnum(String name, String desc, String value) {
+            if ((trace & Trace.ANNOTATION) != 0) trace("annotation.visitEnum", name, desc, value);
+            addDescription(desc);
+        }
+    }
+    
+    /**
+     * Find class references in Field declarations.
+     */
+    class FieldReferenceFinder implements FieldVisitor {
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            if ((trace & Trace.FIELD) != 0) trace("field.visitAnnotation", desc, visible, null);
+            addDescription(desc);
+            return ANT_FINDER;
+        }
+
+        public void visitAttribute(Attribute arg0) {
+            if ((trace & Trace.FIELD) != 0) trace("field.visitAttribute", arg0, null, null);
+            //TODO: Needs implementation?
+        }
+        
+        public void visitEnd() {
+            if ((trace & Trace.FIELD) != 0) trace("field.visitEnd", null, null, null);
+        }
+    }
+    
+    /**
+     * Find class references in Method implementations.
+     */
+    class MethodReferenceFinder implements MethodVisitor {
+
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitAnnotation", desc, visible, null);
+            addDescription(desc);
+            return ANT_FINDER;
+        }
+
+        public AnnotationVisitor visitAnnotationDefault() {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitAnnotationDefault", null, null, null);
+            return ANT_FINDER;
+        }
+
+        public void visitAttribute(Attribute arg0) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitAttribute", arg0, null, null);
+            //TODO: needs implementation?
+        }
+
+        public void visitCode() {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitCode", null, null, null);
+        }
+        
+        public void visitEnd() {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitEnd", null, null, null);
+        }
+
+        public void visitFieldInsn(int op, String owner, String name, String desc) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitFieldInsn", owner, name, desc);
+            addType(owner);
+            addDescription(desc);
+            if (recorder != null) recorder.visitReference(owner, name, desc);
+        }
+
+        public void visitFrame(int arg0, int arg1, Object[] arg2, int arg3, Object[] arg4) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitFrame", arg2, arg4, null);
+        }
+        public void visitIincInsn(int arg0, int arg1) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitIincInsn", arg0, arg1, null);
+        }
+        public void visitInsn(int arg0) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitInsn", arg0, null, null);
+        }
+        public void visitIntInsn(int arg0, int arg1) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitIntInsn", arg0, arg1, null);
+        }
+        public void visitJumpInsn(int arg0, Label arg1) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitJumpInsn", arg0, arg1, null);
+        }
+        public void visitLabel(Label arg0) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitLabel", arg0, null, null);
+        }
+
+        public void visitLdcInsn(Object insn) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitLdcInsn", insn, null, null);
+
+            if (insn instanceof Type) {
+                addDescription(insn.toString());
+            }
+        }
+
+        public void visitLineNumber(int arg0, Label arg1) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitLineNumber", arg0, arg1, null);
+        }
+
+        public void visitLocalVariable(String name, String desc, String sig, Label start, Label end, int index) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitLocalVariable", name, desc, sig);
+            addDescription(desc);
+        }
+
+        public void visitLookupSwitchInsn(Label arg0, int[] arg1, Label[] arg2) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitLookupSwitchInsn", arg0, arg1, arg2);
+        }
+        public void visitMaxs(int arg0, int arg1) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitMaxs", arg0, arg1, null);
+        }
+
+        public void visitMethodInsn(int op, String owner, String name, String desc) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitMethodInsn", owner, name, desc);
+
+            if (recorder != null) recorder.visitReference(owner, name, desc);
+            if (owner.startsWith("[") && owner.charAt(1) != 'L') return;
+            if (owner.endsWith(";")) {
+                addDescription(desc);
+            } else {
+                addType(owner);
+            }
+        }
+
+        public void visitMultiANewArrayInsn(String type, int arg1) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitMultiANewArrayInsn", type, arg1, null);
+
+            addDescription(type);
+        }
+
+        public AnnotationVisitor visitParameterAnnotation(int param, String desc, boolean visible) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitParameterAnnotation", desc, null, null);
+            
+            addDescription(desc);
+            return ANT_FINDER;
+        }
+
+        public void visitTableSwitchInsn(int arg0, int arg1, Label arg2, Label[] arg3) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitTableSwitchInsn", arg0, arg1, arg2);
+        }
+
+        public void visitTryCatchBlock(Label arg0, Label arg1, Label arg2, String type) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitTryCatchBlock", type, null, null);
+            if (type != null) addType(type);
+        }
+
+        public void visitTypeInsn(int arg0, String type) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitTypeInsn", type, null, null);
+            addDescription(type);
+        }
+
+        public void visitVarInsn(int arg0, int arg1) {
+            if ((trace & Trace.METHOD) != 0) trace("method.visitVarInsn", arg0, arg1, null);
+        }
+    }
+    
+    /**
+     * Find class references in Class descriptions.
+     */
+    class ClassReferenceFinder implements ClassVisitor {
+        public void visit(int ver, int access, String name, String sig, String supr, String[] ifcs) {
+            trace = Trace.categoriesFor(name);
+            traced = name;
+            if ((trace & Trace.CLASS) != 0) trace("class.visit", name, supr, ifcs);
+            //Note: we do not need to add 'name' because visiting it implies we've already
+            //added it to our work queue.
+            if (supr != null) addType(supr);
+            for (String ifc : ifcs) {
+                addType(ifc);
+            }
+            if (recorder != null) recorder.visitClass(name, supr, ifcs);
+        }
+
+        public AnnotationVisitor visitAnnotation(String desc, boolean arg1) {
+            if ((trace & Trace.CLASS) != 0) trace("class.visitAnnotation", desc, arg1, null);
+            addDescription(desc);
+            return ANT_FINDER;
+        }
+
+        public void visitAttribute(Attribute arg0) {
+            if ((trace & Trace.CLASS) != 0) trace("class.visitAttribute", arg0, null, null);
+            //TODO: needs implementation?
+        }
+
+        public void visitEnd() {
+            if ((trace & Trace.CLASS) != 0) trace("class.visitEnd", null, null, null);
+        }
+
+        public FieldVisitor visitField(int access, String name, String desc, String sig, Object value) {
+            if ((trace & Trace.CLASS) != 0) trace("class.visitField", name, desc, sig);
+
+            addDescription(desc);
+            if (recorder != null) recorder.visitField(name, desc);
+            return FLD_FINDER;
+        }
+
+        public void visitInnerClass(String name, String outer, String inner, int access) {
+            if ((trace & Trace.CLASS) != 0) trace("class.visitInnerClass", name, outer, inner);
+
+            if (name != null) addType(name);
+            if (outer != null) addType(outer);
+        }
+
+        public MethodVisitor visitMethod(int access, String name, String desc, String sig, String[] expts) {
+            if ((trace & Trace.CLASS) != 0) trace("class.visitMethod", name, desc, expts);
+
+            if (desc != null && !name.equals("<init>")) addDescription(desc);
+            if (recorder != null) recorder.visitMethod(name, desc);
+            
+            if (expts != null) {
+                for (String expt : expts) {
+                    addType(expt);
+                }
+            }
+            
+            return MTD_FINDER;
+        }
+
+        public void visitOuterClass(String owner, String name, String desc) {
+            if ((trace & Trace.CLASS) != 0) trace("class.visitOuterClass", owner, name, desc);
+
+            if (owner != null) addType(owner);
+        }
+
+        public void visitSource(String arg0, String arg1) {
+            if ((trace & Trace.CLASS) != 0) trace("class.visitSource", arg0, arg1, null);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops;
+
+/**
+ * A dependency visitor that is also told where each class was found and
+ * which class first referred to it.  The Analyzer calls these methods
+ * instead of the plain success and fail of {@link DependencyVisitor}.
+ */
+public interface SourceVisitor extends DependencyVisitor {
+    /**
+     * Indicates a found class.
+     * @param name the fully qualified name of the class
+     * @param source the location of the class path entry the class was
+     * read from
+     * @param referrer the fully qualified name of the class that first
+     * referred to it, or null for classes named or listed directly
+     */
+    void success(String name, String source, String referrer);
+    
+    /**
+     * Indicates a class that failed to load.
+     * @param name the fully qualified name of the class
+     * @param referrer the fully qualified name of the class that first
+     * referred to it, or null for classes named or listed directly
+     */
+    void fail(String name, String referrer);
+}
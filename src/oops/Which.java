@@ -98,7 +98,8 @@ public class Which {
      */
     public static String locate(String clazz) {
         try {
-            Class<?> test = Class.forName(clazz);
+            //locating a class should not run its static initializer
+            Class<?> test = Class.forName(clazz, false, Which.class.getClassLoader());
             URL location = test.getResource(test.getSimpleName() + ".class");
             //Strip out excess information that we don't need to see, such
             //as the jar:file:/ and file:/ protocol strings, and also remove
@@ -108,7 +109,7 @@ public class Which {
                 simpleLocation = simpleLocation.substring(0, simpleLocation.indexOf('!'));
             simpleLocation = simpleLocation.substring(simpleLocation.indexOf("/") + 1);
             return simpleLocation;
-        } catch (NoClassDefFoundError ncdfe) {
+        } catch (LinkageError le) {
             return null;
         } catch (ClassNotFoundException cnfe) {
             return null;
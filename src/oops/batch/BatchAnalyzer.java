@@ -0,0 +1,322 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package oops.batch;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.LineNumberReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Logger;
+
+import oops.Analyzer;
+import oops.ReferenceExtractor;
+import oops.classpath.ClassSource;
+import oops.classpath.DirectorySource;
+import oops.classpath.JarSource;
+import oops.classpath.PlatformIndex;
+import oops.util.ClassNameSet;
+
+/**
+ * The Batch Analyzer finds the missing classes of many class paths at once.
+ * Every distinct class path entry is parsed a single time into a
+ * {@link JarSummary}, and the missing classes of each class path are then
+ * composed from the summaries of its entries: a class is missing when some
+ * entry refers to it and neither an entry nor the platform provides it.
+ * <p>
+ * Unlike the {@link Analyzer}, platform classes are looked up in a
+ * {@link PlatformIndex} and never parsed, and a class shadowed by an
+ * earlier entry still contributes the references of every copy.  Jars are
+ * summarized once per path, size and modification time; directories once
+ * per Batch Analyzer.
+ * <p>
+ * Invocation arguments: a file, or "-" for standard input, with one class
+ * path per line, optionally preceded by a label and "=".  Each missing class
+ * is printed as "label: class".  Alternatively, "--diff" followed by an old
+ * and a new class path compares the two: classes only the new one misses
+ * are printed as "+ class", classes only the old one misses as "- class".
+ */
+public class BatchAnalyzer {
+    private final ExecutorService pool;
+    private final ConcurrentMap<String, Future<JarSummary>> summaries = new ConcurrentHashMap<String, Future<JarSummary>>();
+    private final PlatformIndex platform;
+    private final ThreadLocal<ReferenceExtractor> extractors = new ThreadLocal<ReferenceExtractor>() {
+        @Override
+        protected ReferenceExtractor initialValue() {
+            return new ReferenceExtractor();
+        }
+    };
+    
+    protected Logger logger = Logger.getLogger(BatchAnalyzer.class.getName());
+    protected boolean log = false;
+    
+    /**
+     * Construct a batch analyzer for the running platform, using one thread
+     * per processor.
+     */
+    public BatchAnalyzer() throws IOException {
+        this(PlatformIndex.current(), Runtime.getRuntime().availableProcessors());
+    }
+    
+    /**
+     * Construct a batch analyzer.
+     * @param platform the index of the platform to check against
+     * @param threads the number of entries to parse at once
+     */
+    public BatchAnalyzer(PlatformIndex platform, int threads) {
+        this.platform = platform;
+        pool = Executors.newFixedThreadPool(threads);
+    }
+    
+    public static void main(String... args) throws IOException, InterruptedException {
+        if (args.length == 3 && args[0].equals("--diff")) {
+            BatchAnalyzer batch = new BatchAnalyzer();
+            try {
+                ClasspathDiff diff = batch.diff(Arrays.asList(args[1].split(File.pathSeparator)),
+                    Arrays.asList(args[2].split(File.pathSeparator)));
+                for (String name : diff.getNewlyMissing()) System.out.printf("+ %s%n", name);
+                for (String name : diff.getNewlyResolved()) System.out.printf("- %s%n", name);
+            } finally {
+                batch.shutdown();
+            }
+            return;
+        }
+        if (args.length != 1) {
+            System.err.println("Expecting a file with one class path per line, or - for standard input.");
+            System.exit(1);
+        }
+        
+        Map<String, List<String>> classpaths = new LinkedHashMap<String, List<String>>();
+        InputStream in = args[0].equals("-") ? System.in : new FileInputStream(args[0]);
+        try {
+            LineNumberReader lnr = new LineNumberReader(new InputStreamReader(in));
+            String line = null;
+            while ((line = lnr.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0) continue;
+                int eq = line.indexOf('=');
+                String label = eq < 0 ? line : line.substring(0, eq).trim();
+                String path = eq < 0 ? line : line.substring(eq + 1).trim();
+                classpaths.put(label, Arrays.asList(path.split(File.pathSeparator)));
+            }
+        } finally {
+            in.close();
+        }
+        
+        BatchAnalyzer batch = new BatchAnalyzer();
+        try {
+            for (Entry<String, ClassNameSet> result : batch.analyze(classpaths).entrySet()) {
+                for (String name : result.getValue()) {
+                    System.out.printf("%s: %s%n", result.getKey(), name);
+                }
+            }
+        } finally {
+            batch.shutdown();
+        }
+    }
+    
+    /**
+     * Set whether the batch analyzer logs unreadable entries. Default false.
+     */
+    public void setLogging(boolean log) {
+        this.log = log;
+    }
+    
+    /**
+     * Find the missing classes of several class paths.  The distinct entries
+     * of all class paths are parsed in parallel before any class path is
+     * composed.
+     * @param classpaths class path entries by label
+     * @return the fully qualified names of the missing classes by label, in
+     * the order of the given map
+     */
+    public Map<String, ClassNameSet> analyze(Map<String, List<String>> classpaths) throws InterruptedException {
+        Map<String, List<Future<JarSummary>>> pending = new LinkedHashMap<String, List<Future<JarSummary>>>();
+        for (Entry<String, List<String>> classpath : classpaths.entrySet()) {
+            pending.put(classpath.getKey(), summarize(classpath.getValue()));
+        }
+        
+        Map<String, ClassNameSet> results = new LinkedHashMap<String, ClassNameSet>();
+        for (Entry<String, List<Future<JarSummary>>> classpath : pending.entrySet()) {
+            results.put(classpath.getKey(), missing(collect(classpath.getValue())));
+        }
+        return results;
+    }
+    
+    /**
+     * Find the missing classes of one class path, reusing the summaries of
+     * entries seen before.
+     * @param classpath the class path entries
+     * @return the fully qualified names of the missing classes
+     */
+    public ClassNameSet analyze(List<String> classpath) throws InterruptedException {
+        return missing(collect(summarize(classpath)));
+    }
+    
+    /**
+     * Compare the missing classes of two class paths.  Entries common to
+     * both, and any entry seen before, are parsed once and shared, so only
+     * the entries that changed cost a parse.
+     * @param before the entries of the old class path
+     * @param after the entries of the new class path
+     * @return the difference in missing classes
+     */
+    public ClasspathDiff diff(List<String> before, List<String> after) throws InterruptedException {
+        //queue both before waiting, so the changed entries parse together
+        List<Future<JarSummary>> old = summarize(before);
+        List<Future<JarSummary>> updated = summarize(after);
+        return new ClasspathDiff(missing(collect(old)), missing(collect(updated)));
+    }
+    
+    /**
+     * Return the summary of a class path entry, parsing it if it has not
+     * been seen before.
+     * @param entry the file system path of a directory or jar
+     * @return the summary, or null if the entry cannot be read
+     */
+    public JarSummary getSummary(String entry) throws InterruptedException {
+        List<JarSummary> result = collect(summarize(Arrays.asList(entry)));
+        return result.isEmpty() ? null : result.get(0);
+    }
+    
+    /**
+     * Stop the worker threads.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+    
+    private List<Future<JarSummary>> summarize(Collection<String> entries) {
+        List<Future<JarSummary>> result = new ArrayList<Future<JarSummary>>(entries.size());
+        for (String entry : entries) {
+            final File file = new File(entry);
+            if (!file.exists() || !file.canRead()) {
+                if (log)
+                    logger.warning("Cannot read the class path entry " + entry);
+                continue;
+            }
+            String key;
+            try {
+                key = file.getCanonicalPath();
+            } catch (IOException ioe) {
+                key = file.getAbsolutePath();
+            }
+            if (file.isFile()) key += ":" + file.length() + ":" + file.lastModified();
+            
+            FutureTask<JarSummary> task = new FutureTask<JarSummary>(new Callable<JarSummary>() {
+                public JarSummary call() throws IOException {
+                    ClassSource source;
+                    Collection<String> names;
+                    if (file.isDirectory()) {
+                        DirectorySource directory = new DirectorySource(file);
+                        source = directory;
+                        names = directory.classNames();
+                    } else {
+                        JarSource jar = new JarSource(file);
+                        source = jar;
+                        names = jar.classNames();
+                    }
+                    try {
+                        return JarSummary.summarize(source, names, extractors.get());
+                    } finally {
+                        source.close();
+                    }
+                }
+            });
+            Future<JarSummary> existing = summaries.putIfAbsent(key, task);
+            if (existing == null) {
+                pool.execute(task);
+                result.add(task);
+            } else {
+                result.add(existing);
+            }
+        }
+        return result;
+    }
+    
+    private List<JarSummary> collect(List<Future<JarSummary>> futures) throws InterruptedException {
+        List<JarSummary> result = new ArrayList<JarSummary>(futures.size());
+        for (Future<JarSummary> future : futures) {
+            try {
+                result.add(future.get());
+            } catch (ExecutionException ee) {
+                if (log)
+                    logger.warning("Skipping unreadable class path entry: " + ee.getCause());
+            }
+        }
+        return result;
+    }
+    
+    private ClassNameSet missing(List<JarSummary> classpath) {
+        //only entries with classes in a package can provide a class from it
+        Map<String, List<JarSummary>> byPackage = new HashMap<String, List<JarSummary>>();
+        for (JarSummary summary : classpath) {
+            for (String pkg : summary.getPackages()) {
+                List<JarSummary> providers = byPackage.get(pkg);
+                if (providers == null) byPackage.put(pkg, providers = new ArrayList<JarSummary>(1));
+                providers.add(summary);
+            }
+        }
+        
+        Set<String> checked = new HashSet<String>();
+        List<String> missing = new ArrayList<String>();
+        for (JarSummary summary : classpath) {
+            for (String reference : summary.getReferences()) {
+                if (!checked.add(reference)) continue;
+                if (!isProvided(byPackage.get(JarSummary.packageOf(reference)), reference)
+                        && !platform.contains(reference)) {
+                    missing.add(reference.replace('/', '.'));
+                }
+            }
+        }
+        return new ClassNameSet(missing);
+    }
+    
+    private static boolean isProvided(List<JarSummary> providers, String name) {
+        if (providers == null) return false;
+        for (JarSummary provider : providers) {
+            if (provider.getProvides().contains(name)) return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.batch;
+
+import oops.util.ClassNameSet;
+
+/**
+ * The change in missing classes between two class paths, such as before
+ * and after a library upgrade.  Names are fully qualified.
+ */
+public class ClasspathDiff {
+    private final ClassNameSet before;
+    private final ClassNameSet after;
+    private final ClassNameSet newlyMissing;
+    private final ClassNameSet newlyResolved;
+
+    ClasspathDiff(ClassNameSet before, ClassNameSet after) {
+        this.before = before;
+        this.after = after;
+        this.newlyMissing = after.difference(before);
+        this.newlyResolved = before.difference(after);
+    }
+
+    /**
+     * @return the missing classes of the old class path
+     */
+    public ClassNameSet getMissingBefore() {
+        return before;
+    }
+
+    /**
+     * @return the missing classes of the new class path
+     */
+    public ClassNameSet getMissingAfter() {
+        return after;
+    }
+
+    /**
+     * @return the classes missing from the new class path but not the old
+     */
+    public ClassNameSet getNewlyMissing() {
+        return newlyMissing;
+    }
+
+    /**
+     * @return the classes missing from the old class path but not the new
+     */
+    public ClassNameSet getNewlyResolved() {
+        return newlyResolved;
+    }
+
+    /**
+     * @return true if both class paths miss the same classes
+     */
+    public boolean isEmpty() {
+        return newlyMissing.isEmpty() && newlyResolved.isEmpty();
+    }
+}
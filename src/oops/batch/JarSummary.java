@@ -0,0 +1,123 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package oops.batch;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import oops.ReferenceExtractor;
+import oops.classpath.ClassBuffer;
+import oops.classpath.ClassSource;
+import oops.util.ClassNameSet;
+
+/**
+ * A summary of one class path entry: the classes it provides, and the
+ * classes its classes refer to that it does not provide itself.  Names are
+ * in internal form.  A summary depends only on the entry, so it can be
+ * shared by every class path that contains the entry.
+ */
+public class JarSummary {
+    private final String location;
+    private final ClassNameSet provides;
+    private final ClassNameSet references;
+    private final Set<String> packages;
+
+    JarSummary(String location, ClassNameSet provides, ClassNameSet references) {
+        this.location = location;
+        this.provides = provides;
+        this.references = references;
+        this.packages = new HashSet<String>();
+        for (String name : provides) packages.add(packageOf(name));
+    }
+
+    /**
+     * Parse every class of an entry and summarize it.
+     * @param source the entry to read classes from
+     * @param names the internal names of the classes in the entry
+     * @param extractor the calling thread's reference extractor
+     * @return the summary
+     * @throws IOException if a listed class cannot be read
+     */
+    public static JarSummary summarize(ClassSource source, Collection<String> names, ReferenceExtractor extractor)
+            throws IOException {
+        Set<String> referenced = new HashSet<String>();
+        ClassBuffer buffer = ClassBuffer.get();
+        for (String name : names) {
+            if (!source.read(name, buffer)) continue;
+            try {
+                referenced.addAll(extractor.extract(buffer.getBytes(), 0, buffer.getLength()));
+            } catch (RuntimeException re) {
+                //a class the parser cannot handle still counts as provided
+            }
+        }
+        ClassNameSet provides = new ClassNameSet(names);
+        referenced.removeAll(provides);
+        return new JarSummary(source.getLocation(), provides, new ClassNameSet(referenced));
+    }
+
+    /**
+     * @return the location of the summarized entry
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * @return the internal names of the classes in the entry
+     */
+    public ClassNameSet getProvides() {
+        return provides;
+    }
+
+    /**
+     * @return the internal names of the classes referred to from the entry
+     * that the entry does not provide
+     */
+    public ClassNameSet getReferences() {
+        return references;
+    }
+
+    /**
+     * Check whether the entry provides a class.
+     * @param name the internal class name
+     * @return true if the entry has the class
+     */
+    public boolean provides(String name) {
+        return packages.contains(packageOf(name)) && provides.contains(name);
+    }
+
+    /**
+     * @return the packages, in internal form, the entry has classes in
+     */
+    public Set<String> getPackages() {
+        return packages;
+    }
+
+    static String packageOf(String name) {
+        int slash = name.lastIndexOf('/');
+        return slash < 0 ? "" : name.substring(0, slash);
+    }
+}
@@ -0,0 +1,377 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.checkpoint;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only log of the classes an analysis has finished, from which
+ * an interrupted analysis can resume.  Each finished class is logged with
+ * the classes it refers to, so that references that were queued but not
+ * yet analyzed when the analysis stopped are queued again on resume.
+ * <p>
+ * The log starts with the magic number 0x4f4f5043 and a format version,
+ * both as ints, followed by the roots of the analysis and the class path
+ * entries it read, each as a count and the strings in modified UTF-8.  A
+ * log is only resumed by an analysis of the same roots and entries.  Class
+ * names are written once, as a NAME record, and referred to by number
+ * after that.  Numbers are unsigned varints, seven bits to a byte, low
+ * bits first.
+ * <ul>
+ *   <li>NAME (0): the name in modified UTF-8.</li>
+ *   <li>FOUND (1): class, priority, location, referrer plus one (zero for
+ *   none), the number of references, then the references.</li>
+ *   <li>MISSING (2): class, referrer plus one.</li>
+ * </ul>
+ * A record cut short by a crash is dropped when the log is opened again.
+ * Records are buffered and reach the disk on {@link #flush()}.
+ */
+public class CheckpointLog {
+    /** The magic number at the start of the log. */
+    public static final int MAGIC = 0x4f4f5043;
+    /** The version of the record layout. */
+    public static final int VERSION = 2;
+
+    private static final int NAME = 0;
+    private static final int FOUND = 1;
+    private static final int MISSING = 2;
+
+    private final File file;
+    private final List<String> roots;
+    private final List<String> classpath;
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private final List<String> names = new ArrayList<String>();
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final DataOutputStream out;
+
+    /**
+     * Open a log, reading the classes logged by an earlier analysis if
+     * the file exists, and append to it from then on.
+     * @param file the log file
+     * @param roots the classes the analysis starts from, or an empty list
+     * for every class of the class path
+     * @param classpath the locations of the class path entries, in order
+     * @throws IOException if the file cannot be read or written, is not a
+     * checkpoint log, or was logged for other roots or entries
+     */
+    public CheckpointLog(File file, List<String> roots, List<String> classpath) throws IOException {
+        this.file = file;
+        this.roots = roots;
+        this.classpath = classpath;
+        long valid = file.exists() ? read() : 0;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            //drop a torn record left by a crash
+            raf.setLength(valid);
+        } finally {
+            raf.close();
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+        if (valid == 0) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeStrings(roots);
+            writeStrings(classpath);
+        }
+    }
+
+    /**
+     * @return the log file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the classes logged before the log was opened, in the order
+     * they finished
+     */
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Log a class that was found.
+     * @param name the internal class name
+     * @param priority the priority of the source it was found in
+     * @param location the location of the source
+     * @param referrer the fully qualified name of the class that referred
+     * to it, or null
+     * @param references the internal names of the classes it refers to
+     */
+    public synchronized void found(String name, int priority, String location, String referrer,
+            List<String> references) throws IOException {
+        int[] refs = new int[references.size()];
+        for (int i = 0; i < refs.length; ++i) {
+            refs[i] = id(references.get(i));
+        }
+        int nameId = id(name);
+        int locationId = id(location);
+        int referrerId = referrer == null ? 0 : id(referrer) + 1;
+        out.writeByte(FOUND);
+        writeVarint(nameId);
+        writeVarint(priority);
+        writeVarint(locationId);
+        writeVarint(referrerId);
+        writeVarint(refs.length);
+        for (int ref : refs) {
+            writeVarint(ref);
+        }
+    }
+
+    /**
+     * Log a class that was not found.
+     * @param name the internal class name
+     * @param referrer the fully qualified name of the class that referred
+     * to it, or null
+     */
+    public synchronized void missing(String name, String referrer) throws IOException {
+        int nameId = id(name);
+        int referrerId = referrer == null ? 0 : id(referrer) + 1;
+        out.writeByte(MISSING);
+        writeVarint(nameId);
+        writeVarint(referrerId);
+    }
+
+    /**
+     * Write the buffered records to the file.
+     */
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Flush and close the log.
+     */
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private int id(String name) throws IOException {
+        Integer id = ids.get(name);
+        if (id != null) return id.intValue();
+        out.writeByte(NAME);
+        out.writeUTF(name);
+        ids.put(name, Integer.valueOf(names.size()));
+        names.add(name);
+        return names.size() - 1;
+    }
+
+    private void writeStrings(List<String> strings) throws IOException {
+        writeVarint(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private void writeVarint(int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Read the records of an existing log.
+     * @return the length of the log up to its last whole record
+     */
+    private long read() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        byte[] bytes;
+        try {
+            if (raf.length() > Integer.MAX_VALUE) throw new IOException("Checkpoint too large: " + file);
+            bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+        } finally {
+            raf.close();
+        }
+        //an empty file, or one cut short within its header, starts over
+        if (bytes.length < 8) return 0;
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        if (in.getInt() != MAGIC || in.getInt() != VERSION)
+            throw new IOException("Not a checkpoint log: " + file);
+        List<String> loggedRoots;
+        List<String> loggedClasspath;
+        try {
+            loggedRoots = readStrings(in);
+            loggedClasspath = readStrings(in);
+        } catch (IOException ioe) {
+            //cut short within its header, so nothing was logged yet
+            return 0;
+        }
+        if (!loggedRoots.equals(roots) || !loggedClasspath.equals(classpath))
+            throw new IOException("Checkpoint of another analysis, with roots " + loggedRoots
+                + " and class path " + loggedClasspath + ": " + file);
+        int valid = in.position();
+        try {
+            while (in.hasRemaining()) {
+                int tag = in.get();
+                if (tag == NAME) {
+                    String name = readUTF(in);
+                    ids.put(name, Integer.valueOf(names.size()));
+                    names.add(name);
+                } else if (tag == FOUND) {
+                    String name = name(readVarint(in));
+                    int priority = readVarint(in);
+                    String location = name(readVarint(in));
+                    String referrer = referrer(readVarint(in));
+                    String[] references = new String[readVarint(in)];
+                    for (int i = 0; i < references.length; ++i) {
+                        references[i] = name(readVarint(in));
+                    }
+                    entries.add(new Entry(name, true, priority, location, referrer, references));
+                } else if (tag == MISSING) {
+                    String name = name(readVarint(in));
+                    String referrer = referrer(readVarint(in));
+                    entries.add(new Entry(name, false, 0, null, referrer, new String[0]));
+                } else {
+                    break;
+                }
+                valid = in.position();
+            }
+        } catch (IOException ioe) {
+            //a torn record
+        } catch (RuntimeException re) {
+            //a torn record
+        }
+        return valid;
+    }
+
+    private String name(int id) throws EOFException {
+        if (id < 0 || id >= names.size()) throw new EOFException("Unknown name " + id);
+        return names.get(id);
+    }
+
+    private String referrer(int id) throws EOFException {
+        return id == 0 ? null : name(id - 1);
+    }
+
+    private static List<String> readStrings(ByteBuffer in) throws IOException {
+        int count = readVarint(in);
+        List<String> strings = new ArrayList<String>();
+        for (int i = 0; i < count; ++i) {
+            strings.add(readUTF(in));
+        }
+        return strings;
+    }
+
+    private static int readVarint(ByteBuffer in) throws EOFException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (!in.hasRemaining()) throw new EOFException();
+            int b = in.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new EOFException("Varint too long");
+    }
+
+    private static String readUTF(ByteBuffer in) throws IOException {
+        if (in.remaining() < 2) throw new EOFException();
+        int length = in.getShort(in.position()) & 0xffff;
+        if (in.remaining() < 2 + length) throw new EOFException();
+        String name = new DataInputStream(new ByteArrayInputStream(in.array(), in.position(), 2 + length)).readUTF();
+        in.position(in.position() + 2 + length);
+        return name;
+    }
+
+    /**
+     * A class logged as finished.
+     */
+    public static class Entry {
+        private final String name;
+        private final boolean found;
+        private final int priority;
+        private final String location;
+        private final String referrer;
+        private final String[] references;
+
+        Entry(String name, boolean found, int priority, String location, String referrer, String[] references) {
+            this.name = name;
+            this.found = found;
+            this.priority = priority;
+            this.location = location;
+            this.referrer = referrer;
+            this.references = references;
+        }
+
+        /**
+         * @return the internal class name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return true if the class was found
+         */
+        public boolean isFound() {
+            return found;
+        }
+
+        /**
+         * @return the priority of the source the class was found in
+         */
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * @return the location of the source the class was found in, or
+         * null if it was not found
+         */
+        public String getLocation() {
+            return location;
+        }
+
+        /**
+         * @return the fully qualified name of the referring class, or null
+         */
+        public String getReferrer() {
+            return referrer;
+        }
+
+        /**
+         * @return the internal names of the classes it refers to
+         */
+        public List<String> getReferences() {
+            return Collections.unmodifiableList(Arrays.asList(references));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.classpath;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Inflater;
+
+/**
+ * A reusable holder for the bytes of one class file.  Every thread gets its
+ * own buffer from {@link #get()}, which grows to the largest class the thread
+ * has read and is then reused, so reading a class does not allocate.  The
+ * contents are only valid until the same thread reads the next class.
+ */
+public final class ClassBuffer {
+    private static final ThreadLocal<ClassBuffer> LOCAL = new ThreadLocal<ClassBuffer>() {
+        @Override
+        protected ClassBuffer initialValue() {
+            return new ClassBuffer();
+        }
+    };
+
+    private byte[] bytes = new byte[16 * 1024];
+    private int length;
+    private byte[] input = new byte[16 * 1024];
+    private Inflater inflater;
+
+    /**
+     * @return the buffer belonging to the calling thread
+     */
+    public static ClassBuffer get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * @return the array holding the class bytes, starting at index zero
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of valid bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Make room for a class of a known size.
+     * @param size the class file size
+     * @return the array to fill from index zero
+     */
+    public byte[] reserve(int size) {
+        if (bytes.length < size) bytes = new byte[Math.max(size, bytes.length * 2)];
+        length = size;
+        return bytes;
+    }
+
+    /**
+     * Make room for compressed input of a known size.  The input array is
+     * separate from the class bytes so both can be used at once.
+     * @param size the compressed size
+     * @return the array to fill from index zero
+     */
+    byte[] reserveInput(int size) {
+        if (input.length < size) input = new byte[Math.max(size, input.length * 2)];
+        return input;
+    }
+
+    /**
+     * @return a reset inflater for raw deflate data
+     */
+    Inflater inflater() {
+        if (inflater == null) inflater = new Inflater(true);
+        else inflater.reset();
+        return inflater;
+    }
+
+    /**
+     * Fill the buffer from a stream of unknown length.  The stream is not
+     * closed.
+     * @param in the stream to read
+     */
+    public void readFully(InputStream in) throws IOException {
+        int n = 0;
+        int r;
+        while ((r = in.read(bytes, n, bytes.length - n)) != -1) {
+            n += r;
+            if (n == bytes.length) {
+                byte[] larger = new byte[bytes.length * 2];
+                System.arraycopy(bytes, 0, larger, 0, n);
+                bytes = larger;
+            }
+        }
+        length = n;
+    }
+}
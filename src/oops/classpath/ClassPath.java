@@ -0,0 +1,374 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.classpath;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An ordered list of class sources.  A class is read from the first source
+ * that has it, the same way a class loader searches its class path.
+ * <p>
+ * Each source also has a priority, which decides how early the classes it
+ * holds and the classes they refer to are analyzed.  Lower priorities come
+ * first.  By default directories hold application classes, jars hold
+ * libraries and class loaders see the platform.
+ */
+public class ClassPath {
+    /** The priority of the classes an analysis was asked about. */
+    public static final int ROOT = 0;
+    /** The default priority of class path directories. */
+    public static final int APPLICATION = 1;
+    /** The default priority of jars. */
+    public static final int LIBRARY = 2;
+    /** The priority of platform classes. */
+    public static final int PLATFORM = 3;
+    
+    private final List<ClassSource> sources = new CopyOnWriteArrayList<ClassSource>();
+    private final Map<ClassSource, Integer> priorities = new ConcurrentHashMap<ClassSource, Integer>();
+    private final List<String> skipped = new ArrayList<String>();
+    //jars added by path and not yet checked for a fat jar layout
+    private final Set<JarSource> unchecked =
+        Collections.newSetFromMap(new ConcurrentHashMap<JarSource, Boolean>());
+    //the sources each fat jar was split into, for searches begun before
+    private final Map<JarSource, List<ClassSource>> splits = new ConcurrentHashMap<JarSource, List<ClassSource>>();
+    private volatile PlatformIndex platformIndex;
+
+    /**
+     * Build the class path the running JVM was started with.  Entries of
+     * java.class.path come first, followed by the system class loader for
+     * everything else it can see.
+     * @return a new class path
+     */
+    public static ClassPath system() {
+        ClassPath classpath = new ClassPath();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classpath.add(entry);
+        }
+        //the system loader also sees jars named by manifest Class-Path
+        //attributes, which are not listed in java.class.path
+        classpath.add(new LoaderSource(ClassLoader.getSystemClassLoader()));
+        return classpath;
+    }
+
+    /**
+     * Build a class path from explicit entries.  Classes are resolved only
+     * from those entries and the platform classes, never from the class
+     * path of the running tool.
+     * @param entries the directories and jars, in search order
+     * @return a new class path
+     */
+    public static ClassPath of(String... entries) {
+        ClassPath classpath = new ClassPath();
+        for (String entry : entries) {
+            classpath.add(entry);
+        }
+        classpath.add(platform());
+        return classpath;
+    }
+
+    /**
+     * Build a class path from explicit entries, checked against an indexed
+     * platform rather than the platform running the tool.  Platform classes
+     * are recognized by the index alone and are never read.
+     * @param platform the index of the target platform
+     * @param entries the directories and jars, in search order
+     * @return a new class path
+     */
+    public static ClassPath of(PlatformIndex platform, String... entries) {
+        ClassPath classpath = new ClassPath();
+        for (String entry : entries) {
+            classpath.add(entry);
+        }
+        classpath.setPlatformIndex(platform);
+        return classpath;
+    }
+
+    /**
+     * Build a class path from a list of entries separated by the platform
+     * path separator, as in the java.class.path property.
+     * @param path the class path string
+     * @return a new class path
+     */
+    public static ClassPath parse(String path) {
+        return of(path.split(File.pathSeparator));
+    }
+
+    /**
+     * @return a source for the classes of the Java platform, without any of
+     * the application classes of the running JVM
+     */
+    public static LoaderSource platform() {
+        //the parent of the system loader is the extension loader on Java 8
+        //and the platform loader later on, both of which delegate to the
+        //boot loader
+        return new LoaderSource(ClassLoader.getSystemClassLoader().getParent());
+    }
+
+    /**
+     * Append a directory or jar to the class path.
+     * @param entry the file system path of the entry
+     * @return the new source, or null if the entry cannot be read
+     */
+    public ClassSource add(String entry) {
+        File file = new File(entry);
+        return add(entry, file.isDirectory() ? APPLICATION : LIBRARY);
+    }
+
+    /**
+     * Append a directory or jar to the class path with a given priority.
+     * A fat jar stands for the class path its launcher would build, its
+     * classes directory and then each nested jar; see
+     * {@link JarSource#nestedClassPath()}.  The jar is opened, and split
+     * into those sources, only when it is first searched or listed.
+     * @param entry the file system path of the entry
+     * @param priority the priority of the entry's classes
+     * @return the new source, or null if the entry cannot be read
+     */
+    public ClassSource add(String entry, int priority) {
+        File file = new File(entry);
+        if (!file.exists() || !file.canRead()) {
+            synchronized (skipped) {
+                skipped.add(entry);
+            }
+            return null;
+        }
+        if (file.isDirectory()) {
+            ClassSource source = new DirectorySource(file);
+            add(source, priority);
+            return source;
+        }
+        JarSource jar = new JarSource(file);
+        add(jar, priority);
+        unchecked.add(jar);
+        return jar;
+    }
+
+    /**
+     * Split a jar added by path into the sources of its fat jar layout, if
+     * it has one and was not checked before.  The sources take the jar's
+     * place and priority.  Listing a source through this method first lets
+     * each jar be opened by the thread that lists it.
+     * @param source a source of this class path
+     * @return the sources the jar was split into, or null if the source is
+     * not a fat jar
+     */
+    public List<ClassSource> split(ClassSource source) {
+        if (!unchecked.isEmpty() && unchecked.contains(source)) check((JarSource) source);
+        return splits.isEmpty() ? null : splits.get(source);
+    }
+
+    /**
+     * Split every fat jar now, for uses that need the final sources up
+     * front.  This opens every jar not opened yet.
+     */
+    public void splitAll() {
+        for (ClassSource source : sources) {
+            split(source);
+        }
+    }
+
+    private void check(JarSource jar) {
+        //the jar's own lock, so that other jars are opened meanwhile
+        synchronized (jar) {
+            if (!unchecked.contains(jar)) return;
+            List<ListableSource> nested = null;
+            try {
+                nested = jar.nestedClassPath();
+            } catch (IOException ioe) {
+                //reported when the jar is first read, as for any broken jar
+            }
+            if (nested != null) {
+                Integer priority = Integer.valueOf(getPriority(jar));
+                for (ClassSource source : nested) {
+                    priorities.put(source, priority);
+                }
+                splits.put(jar, new ArrayList<ClassSource>(nested));
+                //a search that meets the jar meanwhile follows splits
+                int index = sources.indexOf(jar);
+                if (index >= 0) {
+                    sources.addAll(index + 1, nested);
+                    sources.remove(index);
+                }
+            }
+            unchecked.remove(jar);
+        }
+    }
+
+    /**
+     * Append a source to the class path.  Class loaders are given platform
+     * priority, other sources library priority.
+     * @param source the source
+     */
+    public void add(ClassSource source) {
+        add(source, source instanceof LoaderSource ? PLATFORM : LIBRARY);
+    }
+
+    /**
+     * Append a source to the class path with a given priority.
+     * @param source the source
+     * @param priority the priority of the source's classes
+     */
+    public void add(ClassSource source, int priority) {
+        priorities.put(source, Integer.valueOf(priority));
+        sources.add(source);
+    }
+
+    /**
+     * Put a new source in the place of an old one, with the same priority,
+     * as when a jar on the class path has been rewritten.  The old source is
+     * not closed.
+     * @param source a source of this class path
+     * @param replacement the source to search in its place
+     * @return true if the source was found and replaced
+     */
+    public boolean replace(ClassSource source, ClassSource replacement) {
+        int index = sources.indexOf(source);
+        if (index < 0) return false;
+        priorities.put(replacement, Integer.valueOf(getPriority(source)));
+        sources.set(index, replacement);
+        priorities.remove(source);
+        if (unchecked.remove(source) && replacement instanceof JarSource) unchecked.add((JarSource) replacement);
+        return true;
+    }
+
+    /**
+     * Change the priority of a source.
+     * @param source a source of this class path
+     * @param priority the new priority
+     */
+    public void setPriority(ClassSource source, int priority) {
+        if (sources.contains(source)) priorities.put(source, Integer.valueOf(priority));
+    }
+
+    /**
+     * @param source a source of this class path
+     * @return the priority of the source
+     */
+    public int getPriority(ClassSource source) {
+        Integer priority = priorities.get(source);
+        return priority == null ? LIBRARY : priority.intValue();
+    }
+
+    /**
+     * Guess the priority of a class that has not been read yet, from the
+     * priority of the class that refers to it.
+     * @param name the internal class name
+     * @param referrer the priority of the referring class
+     * @return the priority to analyze the class with
+     */
+    public int priorityOf(String name, int referrer) {
+        //only the platform may define java.* classes
+        if (name.startsWith("java/") || isPlatformClass(name)) return PLATFORM;
+        return referrer == ROOT ? APPLICATION : referrer;
+    }
+
+    /**
+     * Use an index to recognize platform classes.  Classes in the index are
+     * taken to exist without being read, ahead of every source, the same
+     * way class loaders delegate to the platform first.
+     * @param platformIndex the index, or null to read platform classes
+     * through the sources
+     */
+    public void setPlatformIndex(PlatformIndex platformIndex) {
+        this.platformIndex = platformIndex;
+    }
+
+    /**
+     * @return the platform index, or null if none is used
+     */
+    public PlatformIndex getPlatformIndex() {
+        return platformIndex;
+    }
+
+    /**
+     * Check whether a class belongs to the indexed platform.
+     * @param name the internal class name
+     * @return true if a platform index is used and has the class
+     */
+    public boolean isPlatformClass(String name) {
+        PlatformIndex index = platformIndex;
+        return index != null && index.contains(name);
+    }
+
+    /**
+     * @return the sources, in search order
+     */
+    public List<ClassSource> getSources() {
+        return sources;
+    }
+
+    /**
+     * @return the entries passed to {@link #add(String)} that could not be
+     * read and were left out
+     */
+    public List<String> getSkipped() {
+        synchronized (skipped) {
+            return new ArrayList<String>(skipped);
+        }
+    }
+
+    /**
+     * Read a class from the first source that has it.  Sources that fail
+     * with an I/O error are skipped, as a class loader would.
+     * @param name the internal class name
+     * @param buffer the buffer to fill
+     * @return the source the class was read from, or null if not found
+     */
+    public ClassSource read(String name, ClassBuffer buffer) {
+        return read(sources, name, buffer);
+    }
+
+    private ClassSource read(List<ClassSource> sources, String name, ClassBuffer buffer) {
+        for (ClassSource source : sources) {
+            List<ClassSource> nested = split(source);
+            if (nested != null) {
+                ClassSource found = read(nested, name, buffer);
+                if (found != null) return found;
+                continue;
+            }
+            try {
+                if (source.read(name, buffer)) return source;
+            } catch (IOException ioe) {
+                //try the next source
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Close every source.
+     */
+    public void close() {
+        for (ClassSource source : sources) {
+            source.close();
+        }
+    }
+}
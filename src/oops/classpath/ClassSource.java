@@ -0,0 +1,52 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.classpath;
+
+import java.io.IOException;
+
+/**
+ * A Class Source supplies the bytes of class files, such as a class path
+ * directory or a jar file.  Class names are given in internal form, with /
+ * separators and without the .class extension.  Implementations must allow
+ * concurrent reads.
+ */
+public interface ClassSource {
+    /**
+     * @return a human readable location, usually a file system path
+     */
+    String getLocation();
+
+    /**
+     * Read a class into a buffer.
+     * @param name the internal class name
+     * @param buffer the buffer to fill
+     * @return true if this source has the class, false if it does not
+     * @throws IOException if the class exists but could not be read
+     */
+    boolean read(String name, ClassBuffer buffer) throws IOException;
+
+    /**
+     * Release any resources held by this source.
+     */
+    void close();
+}
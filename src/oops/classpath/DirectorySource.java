@@ -0,0 +1,110 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.classpath;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reads class files from an exploded class path directory straight into the
+ * calling thread's {@link ClassBuffer}.
+ */
+public class DirectorySource implements ListableSource {
+    private final File root;
+
+    public DirectorySource(File root) {
+        this.root = root;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public String getLocation() {
+        return root.getPath();
+    }
+
+    public boolean read(String name, ClassBuffer buffer) throws IOException {
+        File file = new File(root, name + ".class");
+        if (!file.isFile()) return false;
+        FileInputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (FileNotFoundException fnfe) {
+            return false;
+        }
+        try {
+            long size = in.getChannel().size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Class file too large: " + file);
+            byte[] bytes = buffer.reserve((int) size);
+            int n = 0;
+            while (n < size) {
+                int r = in.read(bytes, n, (int) size - n);
+                if (r < 0) throw new EOFException(file.getPath());
+                n += r;
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * List every class under the directory.  The Analyzer lists directories
+     * in parallel by itself; this is for callers that need the names at
+     * once.
+     * @return the internal names of all classes in the directory
+     * @throws IOException if the directory cannot be walked
+     */
+    public Collection<String> classNames() throws IOException {
+        final Path start = root.toPath();
+        final List<String> names = new ArrayList<String>();
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = start.relativize(file).toString();
+                if (name.endsWith(".class")) {
+                    name = name.substring(0, name.length() - 6);
+                    names.add(File.separatorChar == '/' ? name : name.replace(File.separatorChar, '/'));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return names;
+    }
+
+    public void close() {
+        //nothing is held open between reads
+    }
+}
@@ -0,0 +1,232 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.classpath;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipException;
+
+/**
+ * Reads class files from a jar by memory mapping it.  The jar is mapped and
+ * its central directory indexed on first use; the file handle is closed
+ * right after mapping, so an open source holds no file descriptor.
+ * <p>
+ * A fat jar, such as a Spring Boot jar or war, holds its own classes under
+ * a directory and its libraries as nested jars.  {@link #nestedClassPath()}
+ * splits one into the class path its launcher would build, read in place
+ * from the outer jar.  The sources it returns share the outer jar's
+ * mapping, and the outer jar is closed once they all are.
+ */
+public class JarSource implements ListableSource {
+    /** The top directories of fat jar layouts: Spring Boot jars, then wars. */
+    private static final String[] LAYOUTS = {"BOOT-INF/", "WEB-INF/"};
+
+    private final File file;
+    private final String prefix;
+    private final JarSource outer;
+    private final AtomicInteger holders = new AtomicInteger();
+    private volatile ZipIndex index;
+    private volatile boolean closed;
+    private volatile boolean broken;
+
+    public JarSource(File file) {
+        this(file, "");
+    }
+
+    /**
+     * Read the classes under a directory of the jar only.
+     * @param file the jar
+     * @param prefix the directory, ending with /, such as BOOT-INF/classes/
+     */
+    public JarSource(File file, String prefix) {
+        this.file = file;
+        this.prefix = prefix;
+        this.outer = null;
+    }
+
+    /**
+     * Read the classes under a directory of another jar source, sharing its
+     * mapping.  The outer source is closed once every source reading from
+     * it has been.
+     * @param outer the jar
+     * @param prefix the directory, ending with /, such as BOOT-INF/classes/
+     */
+    public JarSource(JarSource outer, String prefix) {
+        this.file = outer.file;
+        this.prefix = prefix;
+        this.outer = outer;
+        outer.retain();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the directory of the jar the classes are read from, or "" for
+     * the whole jar
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the jar source whose mapping this one reads, or null if it
+     * maps the jar itself
+     */
+    public JarSource getOuter() {
+        return outer;
+    }
+
+    public String getLocation() {
+        return prefix.length() == 0 ? file.getPath() : file.getPath() + "!/" + prefix.substring(0, prefix.length() - 1);
+    }
+
+    public boolean read(String name, ClassBuffer buffer) throws IOException {
+        //a jar that failed to open is reported once, then treated as empty
+        if (broken) return false;
+        return index().read(name, buffer);
+    }
+
+    /**
+     * @return the internal names of all classes in the jar
+     * @throws IOException if the jar cannot be opened
+     */
+    public Collection<String> classNames() throws IOException {
+        return index().classNames();
+    }
+
+    /**
+     * Split a fat jar into the class path its launcher would build: its
+     * classes directory first, then its nested jars in the order of their
+     * entries, which is the order the Spring Boot build writes them in.
+     * Launcher classes at the top of the jar are left out.
+     * @return the sources, or null if this is not a fat jar
+     * @throws IOException if the jar cannot be opened
+     */
+    public List<ListableSource> nestedClassPath() throws IOException {
+        ZipIndex outer = index();
+        for (String layout : LAYOUTS) {
+            List<ListableSource> sources = new ArrayList<ListableSource>();
+            String classes = layout + "classes/";
+            for (String name : outer.classNames()) {
+                if (name.startsWith(classes)) {
+                    sources.add(new JarSource(this, classes));
+                    break;
+                }
+            }
+            //executable wars keep the libraries of the container apart
+            for (String lib : new String[] {layout + "lib/", layout + "lib-provided/"}) {
+                for (String name : outer.archiveNames()) {
+                    if (name.startsWith(lib) && name.indexOf('/', lib.length()) < 0)
+                        sources.add(new NestedJarSource(this, name));
+                }
+            }
+            if (!sources.isEmpty()) return sources;
+        }
+        return null;
+    }
+
+    /**
+     * Return the bytes of a jar nested in this one.
+     * @param name the entry name of the nested jar
+     * @return the nested jar, or null if there is no such entry
+     * @throws IOException if either jar cannot be read
+     */
+    ByteBuffer archive(String name) throws IOException {
+        return index().archive(name);
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            index = null;
+        }
+        if (outer != null) outer.release();
+    }
+
+    /**
+     * Note a source that reads from this jar, and so keeps it open.
+     */
+    void retain() {
+        holders.incrementAndGet();
+    }
+
+    /**
+     * Note that a source reading from this jar was closed, closing the jar
+     * after the last one.
+     */
+    void release() {
+        if (holders.decrementAndGet() == 0) close();
+    }
+
+    private ZipIndex index() throws IOException {
+        ZipIndex result = index;
+        if (result != null) return result;
+        synchronized (this) {
+            if (closed) throw new IOException("Source is closed: " + file);
+            if (index == null) {
+                try {
+                    index = open();
+                } catch (IOException ioe) {
+                    broken = true;
+                    throw ioe;
+                }
+            }
+            return index;
+        }
+    }
+
+    private ZipIndex open() throws IOException {
+        if (outer != null) {
+            try {
+                return new ZipIndex(getLocation(), outer.index().data(), prefix);
+            } catch (IndexOutOfBoundsException ioobe) {
+                throw new ZipException("Corrupt jar " + file);
+            }
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) throw new ZipException("Jar too large to map: " + file);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            try {
+                return new ZipIndex(getLocation(), map, prefix);
+            } catch (IndexOutOfBoundsException ioobe) {
+                throw new ZipException("Corrupt jar " + file);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.classpath;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads class files as resources of a class loader.  This covers whatever
+ * the loader can see that is not otherwise on the class path, such as the
+ * platform classes.
+ */
+public class LoaderSource implements ClassSource {
+    private final ClassLoader loader;
+
+    public LoaderSource(ClassLoader loader) {
+        this.loader = loader;
+    }
+
+    public String getLocation() {
+        return String.valueOf(loader);
+    }
+
+    public boolean read(String name, ClassBuffer buffer) throws IOException {
+        InputStream in = loader == null
+            ? ClassLoader.getSystemResourceAsStream(name + ".class")
+            : loader.getResourceAsStream(name + ".class");
+        if (in == null) return false;
+        try {
+            buffer.readFully(in);
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Check whether the loader has a class without reading it.
+     * @param name the internal class name
+     * @return true if the class file exists
+     */
+    public boolean contains(String name) {
+        return (loader == null
+            ? ClassLoader.getSystemResource(name + ".class")
+            : loader.getResource(name + ".class")) != null;
+    }
+
+    public void close() {
+        //the loader is owned by the caller
+    }
+}
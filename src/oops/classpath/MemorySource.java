@@ -0,0 +1,141 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.classpath;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Holds class files in memory, such as classes generated or transformed at
+ * run time, or the classes of an archive received as a stream.  It can be
+ * mixed with directories and jars on a class path like any other source,
+ * and classes may be added while it is in use.
+ */
+public class MemorySource implements ListableSource {
+    private final String location;
+    private final Map<String, byte[]> classes = new ConcurrentHashMap<String, byte[]>();
+
+    /**
+     * @param location a name for the source, reported as the location of
+     * its classes
+     */
+    public MemorySource(String location) {
+        this.location = location;
+    }
+
+    /**
+     * @param location a name for the source
+     * @param classes class file bytes by class name, in internal or fully
+     * qualified form; the arrays are not copied
+     */
+    public MemorySource(String location, Map<String, byte[]> classes) {
+        this(location);
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Read the classes of a zip or jar archive from a stream, in a single
+     * pass and without a temporary file.  Entries other than class files
+     * are skipped.  The stream is not closed.
+     * @param location a name for the source, such as the archive's name
+     * @param in the archive
+     * @return a new source with the archive's classes
+     * @throws IOException if the archive cannot be read
+     */
+    public static MemorySource read(String location, InputStream in) throws IOException {
+        MemorySource source = new MemorySource(location);
+        ZipInputStream zip = new ZipInputStream(in);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 * 1024);
+        byte[] chunk = new byte[8 * 1024];
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (entry.isDirectory() || !name.endsWith(".class")) continue;
+            bytes.reset();
+            int r;
+            while ((r = zip.read(chunk)) != -1) {
+                bytes.write(chunk, 0, r);
+            }
+            source.classes.put(name.substring(0, name.length() - 6), bytes.toByteArray());
+        }
+        return source;
+    }
+
+    /**
+     * Add or replace a class.
+     * @param name the class name, in internal or fully qualified form
+     * @param bytes the class file; the array is not copied
+     */
+    public void put(String name, byte[] bytes) {
+        classes.put(name.replace('.', '/'), bytes);
+    }
+
+    /**
+     * Add or replace a class, named by its own class file.
+     * @param bytes the class file; the array is not copied
+     * @return the internal name of the class
+     */
+    public String put(byte[] bytes) {
+        String name = new ClassReader(bytes).getClassName();
+        classes.put(name, bytes);
+        return name;
+    }
+
+    /**
+     * Remove a class.
+     * @param name the class name, in internal or fully qualified form
+     */
+    public void remove(String name) {
+        classes.remove(name.replace('.', '/'));
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public boolean read(String name, ClassBuffer buffer) {
+        byte[] bytes = classes.get(name);
+        if (bytes == null) return false;
+        System.arraycopy(bytes, 0, buffer.reserve(bytes.length), 0, bytes.length);
+        return true;
+    }
+
+    public Collection<String> classNames() {
+        return new ArrayList<String>(classes.keySet());
+    }
+
+    public void close() {
+        //the classes go when the source does
+    }
+}
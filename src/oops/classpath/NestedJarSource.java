@@ -0,0 +1,111 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.classpath;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.zip.ZipException;
+
+/**
+ * Reads class files from a jar nested in another, such as a library in the
+ * BOOT-INF/lib directory of a fat jar, without unpacking it.  A stored
+ * nested jar is indexed as a slice of the outer jar's mapping; a deflated
+ * one is inflated into memory once, on first use.  The outer jar is closed
+ * once every source reading from it has been.
+ */
+public class NestedJarSource implements ListableSource {
+    private final JarSource outer;
+    private final String entry;
+    private volatile ZipIndex index;
+    private volatile boolean closed;
+    private volatile boolean broken;
+
+    /**
+     * @param outer the jar holding the nested jar
+     * @param entry the entry name of the nested jar
+     */
+    public NestedJarSource(JarSource outer, String entry) {
+        this.outer = outer;
+        this.entry = entry;
+        outer.retain();
+    }
+
+    /**
+     * @return the jar holding the nested jar
+     */
+    public JarSource getOuter() {
+        return outer;
+    }
+
+    /**
+     * @return the entry name of the nested jar
+     */
+    public String getEntry() {
+        return entry;
+    }
+
+    public String getLocation() {
+        return outer.getLocation() + "!/" + entry;
+    }
+
+    public boolean read(String name, ClassBuffer buffer) throws IOException {
+        if (broken) return false;
+        return index().read(name, buffer);
+    }
+
+    public Collection<String> classNames() throws IOException {
+        return index().classNames();
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            index = null;
+        }
+        outer.release();
+    }
+
+    private ZipIndex index() throws IOException {
+        ZipIndex result = index;
+        if (result != null) return result;
+        synchronized (this) {
+            if (closed) throw new IOException("Source is closed: " + getLocation());
+            if (index == null) {
+                try {
+                    ByteBuffer jar = outer.archive(entry);
+                    if (jar == null) throw new IOException("No nested jar " + getLocation());
+                    index = new ZipIndex(getLocation(), jar);
+                } catch (IOException ioe) {
+                    broken = true;
+                    throw ioe;
+                } catch (IndexOutOfBoundsException ioobe) {
+                    broken = true;
+                    throw new ZipException("Corrupt jar " + getLocation());
+                }
+            }
+            return index;
+        }
+    }
+}
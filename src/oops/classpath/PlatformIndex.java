@@ -0,0 +1,326 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+
+package oops.classpath;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.ProviderNotFoundException;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import oops.util.ClassNameSet;
+
+/**
+ * An index of every class a Java platform provides, so that checking
+ * whether a platform class exists is a single hash probe instead of a
+ * resource lookup.  Modular runtimes are indexed through the jrt file
+ * system and older ones through their boot class path jars.  Any installed
+ * JDK can be indexed without running it, which allows checking an
+ * application against a different JDK than the one running the tool.
+ * <p>
+ * Indexes are cached on disk, one file per vendor, version and runtime
+ * image, under the directory named by the oops.cache.dir system property,
+ * or ~/.oops by default.
+ * <p>
+ * The probe table holds 64 bit fingerprints of the names rather than the
+ * names, so a lookup can in principle confuse two names; with the few tens
+ * of thousands of classes of a JDK the odds are negligible.
+ */
+public class PlatformIndex {
+    private static final int MAGIC = 0x4f4f5053; //"OOPS"
+    private static final int VERSION = 1;
+    private static volatile PlatformIndex current;
+
+    private final String description;
+    private final ClassNameSet names;
+    private final long[] table;
+
+    PlatformIndex(String description, ClassNameSet names) {
+        this.description = description;
+        this.names = names;
+        int capacity = Integer.highestOneBit(Math.max(names.size(), 1) * 2 - 1) << 1;
+        this.table = new long[capacity];
+        for (String name : names) {
+            int mask = table.length - 1;
+            long fp = fingerprint(name);
+            int i = (int) fp & mask;
+            while (table[i] != 0 && table[i] != fp) i = (i + 1) & mask;
+            table[i] = fp;
+        }
+    }
+
+    /**
+     * @return the index of the platform running this JVM
+     * @throws IOException if the runtime image cannot be read
+     */
+    public static PlatformIndex current() throws IOException {
+        PlatformIndex index = current;
+        if (index == null) {
+            synchronized (PlatformIndex.class) {
+                if (current == null) current = load(new File(System.getProperty("java.home")));
+                index = current;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Load the index of an installed Java platform, building and caching it
+     * if it is not cached yet.
+     * @param javaHome the JDK or JRE installation directory
+     * @return the index
+     * @throws IOException if the runtime image cannot be read
+     */
+    public static PlatformIndex load(File javaHome) throws IOException {
+        String key = cacheKey(javaHome);
+        File cache = new File(cacheDirectory(), key + ".idx");
+        if (cache.isFile()) {
+            try {
+                return read(cache, key);
+            } catch (IOException ioe) {
+                //rebuild a damaged or outdated cache file
+            }
+        }
+        PlatformIndex index = build(javaHome, key);
+        write(index, cache);
+        return index;
+    }
+
+    /**
+     * Check whether the platform provides a class.
+     * @param name the internal class name
+     * @return true if the class is part of the platform
+     */
+    public boolean contains(String name) {
+        int mask = table.length - 1;
+        long fp = fingerprint(name);
+        for (int i = (int) fp & mask; table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == fp) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the internal names of all platform classes, sorted
+     */
+    public ClassNameSet getNames() {
+        return names;
+    }
+
+    /**
+     * @return the vendor and version of the indexed platform
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public String toString() {
+        return description + " (" + names.size() + " classes)";
+    }
+
+    static PlatformIndex build(File javaHome, String description) throws IOException {
+        List<String> names = new ArrayList<String>();
+        File modules = new File(javaHome, "lib/modules");
+        if (modules.isFile()) {
+            listModules(javaHome, names);
+        } else {
+            for (File jar : bootJars(javaHome)) {
+                names.addAll(new JarSource(jar).classNames());
+            }
+        }
+        if (names.isEmpty()) throw new IOException("No platform classes found in " + javaHome);
+        return new PlatformIndex(description, new ClassNameSet(names));
+    }
+
+    private static void listModules(File javaHome, final List<String> names) throws IOException {
+        URI jrt = URI.create("jrt:/");
+        FileSystem fs;
+        boolean close = true;
+        if (sameFile(javaHome, new File(System.getProperty("java.home"))) && !System.getProperty("java.version").startsWith("1.")) {
+            fs = FileSystems.getFileSystem(jrt);
+            close = false;
+        } else {
+            Map<String, String> env = Collections.singletonMap("java.home", javaHome.getPath());
+            try {
+                fs = FileSystems.newFileSystem(jrt, env);
+            } catch (ProviderNotFoundException pnfe) {
+                //a Java 8 runtime has no jrt provider; borrow the target's
+                URL jrtfs = new File(javaHome, "lib/jrt-fs.jar").toURI().toURL();
+                fs = FileSystems.newFileSystem(jrt, env, new URLClassLoader(new URL[] {jrtfs}));
+            }
+        }
+        try {
+            Path root = fs.getPath("/modules");
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    //paths look like /modules/java.base/java/lang/String.class
+                    if (file.getNameCount() > 2) {
+                        String name = file.subpath(2, file.getNameCount()).toString();
+                        if (name.endsWith(".class") && !name.endsWith("module-info.class"))
+                            names.add(name.substring(0, name.length() - 6));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            if (close) fs.close();
+        }
+    }
+
+    private static List<File> bootJars(File javaHome) {
+        File lib = new File(javaHome, "jre/lib");
+        if (!lib.isDirectory()) lib = new File(javaHome, "lib");
+        List<File> jars = new ArrayList<File>();
+        for (File dir : new File[] {lib, new File(lib, "ext")}) {
+            File[] files = dir.listFiles();
+            if (files == null) continue;
+            for (File file : files) {
+                if (file.getName().endsWith(".jar")) jars.add(file);
+            }
+        }
+        return jars;
+    }
+
+    private static PlatformIndex read(File cache, String key) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cache)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(key))
+                throw new IOException("Stale platform index " + cache);
+            return new PlatformIndex(key, ClassNameSet.readFrom(in));
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void write(PlatformIndex index, File cache) {
+        File dir = cache.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) return;
+        try {
+            File tmp = File.createTempFile(cache.getName(), ".tmp", dir);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(index.description);
+                index.names.writeTo(out);
+            } finally {
+                out.close();
+            }
+            //readers only ever see a complete file
+            if (!tmp.renameTo(cache)) tmp.delete();
+        } catch (IOException ioe) {
+            //the cache is an optimization; an unwritable one is not an error
+        }
+    }
+
+    private static File cacheDirectory() {
+        String dir = System.getProperty("oops.cache.dir");
+        if (dir != null) return new File(dir, "platform");
+        return new File(System.getProperty("user.home"), ".oops/platform");
+    }
+
+    /**
+     * Build a file name safe key from the vendor and version in the
+     * platform's release file and the size and date of its runtime image.
+     */
+    static String cacheKey(File javaHome) throws IOException {
+        Properties release = new Properties();
+        for (File file : new File[] {new File(javaHome, "release"), new File(javaHome.getParentFile(), "release")}) {
+            if (file.isFile()) {
+                InputStream in = new FileInputStream(file);
+                try {
+                    release.load(in);
+                } finally {
+                    in.close();
+                }
+                break;
+            }
+        }
+        File image = new File(javaHome, "lib/modules");
+        if (!image.isFile()) image = new File(javaHome, "jre/lib/rt.jar");
+        if (!image.isFile()) image = new File(javaHome, "lib/rt.jar");
+        if (!image.isFile()) throw new IOException("Not a Java installation: " + javaHome);
+
+        String vendor = unquote(release.getProperty("IMPLEMENTOR", "unknown"));
+        String version = unquote(release.getProperty("JAVA_RUNTIME_VERSION", release.getProperty("JAVA_VERSION", "unknown")));
+        long stamp = image.length() * 31 + image.lastModified();
+        String key = vendor + "-" + version + "-" + Long.toHexString(stamp);
+        //replaced by hand, to keep regular expressions out of short runs
+        StringBuilder safe = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); ++i) {
+            char c = key.charAt(i);
+            boolean plain = (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')
+                || c == '.' || c == '_' || c == '+' || c == '-';
+            safe.append(plain ? c : '_');
+        }
+        return safe.toString();
+    }
+
+    private static String unquote(String value) {
+        return value.startsWith("\"") && value.endsWith("\"") && value.length() > 1
+            ? value.substring(1, value.length() - 1) : value;
+    }
+
+    private static boolean sameFile(File a, File b) {
+        try {
+            return a.getCanonicalFile().equals(b.getCanonicalFile());
+        } catch (IOException ioe) {
+            return a.getAbsoluteFile().equals(b.getAbsoluteFile());
+        }
+    }
+
+    private static long fingerprint(String name) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); ++i) {
+            h ^= name.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.classpath;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * An index of the class entries of a zip archive held in a ByteBuffer,
+ * built from the archive's central directory.  Stored entries are copied
+ * straight out of the buffer and deflated entries are inflated with the
+ * reader's own {@link Inflater}, both into the reader's {@link ClassBuffer}.
+ * No signature verification is performed.
+ * <p>
+ * Jars nested in the archive are indexed too, so that the jar libraries
+ * of a fat jar can be read in place; see {@link #archive(String)}.
+ */
+final class ZipIndex {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final String location;
+    private final ByteBuffer data;
+    private final ThreadLocal<ByteBuffer> views;
+    private final String prefix;
+    private final Map<String, Integer> classes = new LinkedHashMap<String, Integer>();
+    private final Map<String, Integer> archives = new LinkedHashMap<String, Integer>();
+    private int[] offsets;
+    private int[] compressedSizes;
+    private int[] sizes;
+    private short[] methods;
+
+    /**
+     * Index an archive.
+     * @param location the archive location, for error messages
+     * @param archive the whole archive; the buffer's position is ignored
+     */
+    ZipIndex(String location, ByteBuffer archive) throws IOException {
+        this(location, archive, "");
+    }
+
+    /**
+     * Index the classes under a directory of an archive, such as the
+     * BOOT-INF/classes directory of a fat jar.
+     * @param location the archive location, for error messages
+     * @param archive the whole archive; the buffer's position is ignored
+     * @param prefix the directory, ending with /, or "" for the whole
+     * archive; class names are relative to it
+     */
+    ZipIndex(String location, ByteBuffer archive, String prefix) throws IOException {
+        this.location = location;
+        this.prefix = prefix;
+        this.data = archive.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.data.clear();
+        this.views = new ThreadLocal<ByteBuffer>() {
+            @Override
+            protected ByteBuffer initialValue() {
+                return data.duplicate();
+            }
+        };
+        readCentralDirectory();
+    }
+
+    /**
+     * @return the whole archive, to index another directory of it without
+     * mapping it again
+     */
+    ByteBuffer data() {
+        return data;
+    }
+
+    /**
+     * @return the internal names of every class in the archive, in central
+     * directory order
+     */
+    Collection<String> classNames() {
+        return classes.keySet();
+    }
+
+    /**
+     * @return the entry names of every jar in the archive, in central
+     * directory order
+     */
+    Collection<String> archiveNames() {
+        return archives.keySet();
+    }
+
+    /**
+     * Return the bytes of a nested jar.  A stored jar is a slice of this
+     * archive's buffer, so a mapped archive is read in place; a deflated
+     * jar is inflated onto the heap.
+     * @param name the entry name of the jar
+     * @return the jar, or null if the archive has no such jar
+     */
+    ByteBuffer archive(String name) throws IOException {
+        Integer slot = archives.get(name);
+        if (slot == null) return null;
+        int i = slot.intValue();
+        int start = start(name, i);
+        ByteBuffer view = data.duplicate();
+        view.position(start);
+        view.limit(start + compressedSizes[i]);
+        if (methods[i] == STORED) return view.slice();
+
+        Inflater inflater = new Inflater(true);
+        try {
+            byte[] input = new byte[Math.min(compressedSizes[i], 64 * 1024)];
+            byte[] bytes = new byte[sizes[i]];
+            int n = 0;
+            while (n < bytes.length) {
+                if (inflater.needsInput()) {
+                    int chunk = Math.min(input.length, view.remaining());
+                    if (chunk == 0) break;
+                    view.get(input, 0, chunk);
+                    inflater.setInput(input, 0, chunk);
+                }
+                int r = inflater.inflate(bytes, n, bytes.length - n);
+                if (r == 0 && (inflater.finished() || inflater.needsDictionary())) break;
+                n += r;
+            }
+            if (n != bytes.length)
+                throw new ZipException("Truncated entry " + name + " in " + location);
+            return ByteBuffer.wrap(bytes);
+        } catch (DataFormatException dfe) {
+            throw new ZipException("Corrupt entry " + name + " in " + location + ": " + dfe.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    boolean contains(String name) {
+        return classes.containsKey(name);
+    }
+
+    boolean read(String name, ClassBuffer buffer) throws IOException {
+        Integer slot = classes.get(name);
+        if (slot == null) return false;
+        int i = slot.intValue();
+        int start = start(name, i);
+        ByteBuffer view = views.get();
+        view.position(start);
+
+        if (methods[i] == STORED) {
+            view.get(buffer.reserve(sizes[i]), 0, sizes[i]);
+            return true;
+        }
+
+        byte[] input = buffer.reserveInput(compressedSizes[i]);
+        view.get(input, 0, compressedSizes[i]);
+        Inflater inflater = buffer.inflater();
+        inflater.setInput(input, 0, compressedSizes[i]);
+        byte[] bytes = buffer.reserve(sizes[i]);
+        int n = 0;
+        try {
+            while (n < sizes[i]) {
+                int r = inflater.inflate(bytes, n, sizes[i] - n);
+                if (r == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+                n += r;
+            }
+        } catch (DataFormatException dfe) {
+            throw new ZipException("Corrupt entry " + name + " in " + location + ": " + dfe.getMessage());
+        }
+        if (n != sizes[i])
+            throw new ZipException("Truncated entry " + name + " in " + location);
+        return true;
+    }
+
+    /**
+     * @return the offset of the data of an entry, past its local header
+     */
+    private int start(String name, int slot) throws ZipException {
+        int header = offsets[slot];
+        if (data.getInt(header) != LOCAL_HEADER)
+            throw new ZipException("Bad local header for " + name + " in " + location);
+        return header + 30 + (data.getShort(header + 26) & 0xffff) + (data.getShort(header + 28) & 0xffff);
+    }
+
+    private void readCentralDirectory() throws IOException {
+        int end = findEnd();
+        long entries = data.getShort(end + 10) & 0xffff;
+        long size = data.getInt(end + 12) & 0xffffffffL;
+        long offset = data.getInt(end + 16) & 0xffffffffL;
+        //archives with a prefix, such as a launcher script, have offsets
+        //relative to the start of the zip data rather than the file
+        long base = end - size - offset;
+
+        if (entries == 0xffff || size == 0xffffffffL || offset == 0xffffffffL) {
+            int locator = end - 20;
+            if (locator < 0 || data.getInt(locator) != ZIP64_LOCATOR)
+                throw new ZipException("Missing zip64 locator in " + location);
+            int zip64End = checkedOffset(data.getLong(locator + 8));
+            if (data.getInt(zip64End) != ZIP64_END_HEADER)
+                throw new ZipException("Bad zip64 end header in " + location);
+            entries = data.getLong(zip64End + 32);
+            size = data.getLong(zip64End + 40);
+            offset = data.getLong(zip64End + 48);
+            base = 0;
+        }
+
+        int count = (int) Math.min(entries, Integer.MAX_VALUE);
+        offsets = new int[count];
+        compressedSizes = new int[count];
+        sizes = new int[count];
+        methods = new short[count];
+
+        int position = checkedOffset(base + offset);
+        int slot = 0;
+        byte[] nameBytes = new byte[256];
+        ByteBuffer view = data.duplicate();
+        for (long e = 0; e < entries; ++e) {
+            if (data.getInt(position) != CENTRAL_HEADER)
+                throw new ZipException("Bad central directory entry in " + location);
+            int method = data.getShort(position + 10) & 0xffff;
+            long compressed = data.getInt(position + 20) & 0xffffffffL;
+            long uncompressed = data.getInt(position + 24) & 0xffffffffL;
+            int nameLength = data.getShort(position + 28) & 0xffff;
+            int extraLength = data.getShort(position + 30) & 0xffff;
+            int commentLength = data.getShort(position + 32) & 0xffff;
+            long header = data.getInt(position + 42) & 0xffffffffL;
+            int next = position + 46 + nameLength + extraLength + commentLength;
+
+            if (nameLength > 4 && (data.get(position + 46 + nameLength - 6) == '.'
+                    || data.get(position + 46 + nameLength - 4) == '.')) {
+                if (nameBytes.length < nameLength) nameBytes = new byte[nameLength];
+                view.position(position + 46);
+                view.get(nameBytes, 0, nameLength);
+                String name = utf8(nameBytes, nameLength);
+                boolean isClass = name.endsWith(".class") && name.startsWith(prefix);
+                boolean isJar = name.endsWith(".jar");
+
+                if ((isClass || isJar) && (method == STORED || method == DEFLATED)) {
+                    if (compressed == 0xffffffffL || uncompressed == 0xffffffffL || header == 0xffffffffL) {
+                        long[] values = {uncompressed, compressed, header};
+                        readZip64Extra(position + 46 + nameLength, extraLength, values);
+                        uncompressed = values[0];
+                        compressed = values[1];
+                        header = values[2];
+                    }
+                    String className = isClass ? name.substring(prefix.length(), name.length() - 6) : name;
+                    Map<String, Integer> names = isClass ? classes : archives;
+                    if (!names.containsKey(className)) {
+                        names.put(className, Integer.valueOf(slot));
+                        offsets[slot] = checkedOffset(base + header);
+                        compressedSizes[slot] = checkedOffset(compressed);
+                        sizes[slot] = checkedOffset(uncompressed);
+                        methods[slot] = (short) method;
+                        ++slot;
+                    }
+                }
+            }
+            position = next;
+        }
+
+        if (slot < count) {
+            offsets = Arrays.copyOf(offsets, slot);
+            compressedSizes = Arrays.copyOf(compressedSizes, slot);
+            sizes = Arrays.copyOf(sizes, slot);
+            methods = Arrays.copyOf(methods, slot);
+        }
+    }
+
+    /**
+     * Replace the 0xffffffff placeholders in values (uncompressed size,
+     * compressed size, local header offset) from the zip64 extra field.
+     */
+    private void readZip64Extra(int position, int length, long[] values) {
+        int end = position + length;
+        while (position + 4 <= end) {
+            int id = data.getShort(position) & 0xffff;
+            int size = data.getShort(position + 2) & 0xffff;
+            if (id == 0x0001) {
+                int p = position + 4;
+                for (int i = 0; i < values.length && p + 8 <= position + 4 + size; ++i) {
+                    if (values[i] == 0xffffffffL) {
+                        values[i] = data.getLong(p);
+                        p += 8;
+                    }
+                }
+                return;
+            }
+            position += 4 + size;
+        }
+    }
+
+    private int findEnd() throws ZipException {
+        int limit = Math.max(0, data.limit() - 22 - 0xffff);
+        for (int i = data.limit() - 22; i >= limit; --i) {
+            if (data.getInt(i) == END_HEADER) return i;
+        }
+        throw new ZipException("Not a zip archive: " + location);
+    }
+
+    private int checkedOffset(long offset) throws ZipException {
+        if (offset < 0 || offset > data.limit())
+            throw new ZipException("Invalid offset in " + location);
+        return (int) offset;
+    }
+
+    private static String utf8(byte[] b, int len) {
+        try {
+            return new String(b, 0, len, "UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+}
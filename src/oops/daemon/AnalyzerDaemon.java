@@ -0,0 +1,376 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.daemon;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import oops.classpath.ClassPath;
+import oops.classpath.PlatformIndex;
+import oops.util.ClassNameSet;
+
+/**
+ * The Analyzer Daemon keeps the classes of a class path and the references
+ * between them in memory and answers questions about them over a loopback
+ * socket.  The class path directories and jars are watched, and a change
+ * reads again only the classes that changed, so answers stay current
+ * without another full analysis.
+ * <p>
+ * Each connection sends one request line and reads the answer until the
+ * daemon closes it.  A few connections are answered at once, and one still
+ * open after ten seconds is closed:
+ * <ul>
+ *   <li>"failures": the missing classes, one per line.</li>
+ *   <li>"resolvable" and a class: "true" or "false".</li>
+ *   <li>"which" and a class: the class path entry the class is read from,
+ *   or nothing if it is missing.</li>
+ *   <li>"stop": stop the daemon.</li>
+ * </ul>
+ * Invocation arguments: "--classpath" or "-c" followed by the class path to
+ * serve, "--jdk" or "-j" followed by the Java installation to check against,
+ * "--port" or "-p" followed by the port, and optionally the classes to
+ * check; without classes every class of the class path is checked.
+ * Alternatively, "--query" followed by a port and a request sends the
+ * request to a running daemon and prints the answer.
+ */
+public class AnalyzerDaemon {
+    /** The port a daemon listens on unless told otherwise. */
+    public static final int DEFAULT_PORT = 7207;
+    /**
+     * How long a connection may take to send its request line before it is
+     * dropped, so that a silent client cannot hold up the others.
+     */
+    static final int REQUEST_TIMEOUT_MILLIS = 2000;
+    /**
+     * How long a connection may stay open in all, so that a client that
+     * does not read its answer cannot hold a thread either.
+     */
+    static final int ANSWER_TIMEOUT_MILLIS = 10000;
+    /** The number of connections answered at once. */
+    private static final int CONNECTION_THREADS = 4;
+
+    private final ClassPath classpath;
+    private final ClassGraph graph;
+    private ClassPathWatcher watcher;
+    private ServerSocket server;
+    private ExecutorService connections;
+    private ScheduledExecutorService deadlines;
+    private volatile boolean stopped;
+
+    protected Logger logger;
+    protected boolean log = false;
+
+    /**
+     * @param classpath the class path to serve; it is closed when the
+     * daemon stops
+     * @param classes the classes to check, or none for every class of the
+     * class path
+     */
+    public AnalyzerDaemon(ClassPath classpath, String... classes) {
+        this.classpath = classpath;
+        this.graph = new ClassGraph(classpath, classes.length == 0 ? null : Arrays.asList(classes));
+    }
+
+    /**
+     * Use a logger for warnings, such as class path entries that cannot be
+     * watched.
+     * @param logger the logger, or null to log nothing
+     */
+    public void setLogger(Logger logger) {
+        this.logger = logger;
+        this.log = logger != null;
+    }
+
+    /**
+     * Analyze the class path, then watch it and answer requests in the
+     * background.
+     * @param port the loopback port to listen on, or 0 for any free port
+     * @return the port listened on
+     * @throws IOException if the port or the file system cannot be used
+     */
+    public int start(int port) throws IOException {
+        //watch first, so that nothing written during the analysis is lost
+        watcher = new ClassPathWatcher(classpath, graph);
+        watcher.setLogger(logger);
+        synchronized (graph) {
+            graph.load();
+        }
+        server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        connections = Executors.newFixedThreadPool(CONNECTION_THREADS, threads("oops-daemon-connection"));
+        deadlines = Executors.newSingleThreadScheduledExecutor(threads("oops-daemon-deadline"));
+        Thread watching = new Thread(new Runnable() {
+            public void run() {
+                watch();
+            }
+        }, "oops-daemon-watcher");
+        watching.setDaemon(true);
+        watching.start();
+        Thread serving = new Thread(new Runnable() {
+            public void run() {
+                serve();
+            }
+        }, "oops-daemon-server");
+        serving.setDaemon(true);
+        serving.start();
+        return server.getLocalPort();
+    }
+
+    /**
+     * Stop watching and answering, and close the class path.
+     */
+    public void stop() {
+        synchronized (graph) {
+            if (stopped) return;
+            stopped = true;
+            watcher.close();
+            try {
+                server.close();
+            } catch (IOException ioe) {
+                if (log) logger.warning("Cannot close the daemon socket: " + ioe);
+            }
+            connections.shutdown();
+            deadlines.shutdown();
+            classpath.close();
+            graph.notifyAll();
+        }
+    }
+
+    /**
+     * Wait until the daemon is stopped.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        synchronized (graph) {
+            while (!stopped) graph.wait();
+        }
+    }
+
+    /**
+     * @return the missing classes, as of the last change seen
+     */
+    public ClassNameSet getFailures() {
+        synchronized (graph) {
+            return graph.getFailures();
+        }
+    }
+
+    /**
+     * @param name the fully qualified class name
+     * @return true if the class is found on the class path or the platform
+     */
+    public boolean isResolvable(String name) {
+        return locate(name) != null;
+    }
+
+    /**
+     * Find where a class is read from, as {@link oops.Which} does for the
+     * running JVM.
+     * @param name the fully qualified class name
+     * @return the location of its class path entry, or null if missing
+     */
+    public String locate(String name) {
+        synchronized (graph) {
+            return graph.locate(name);
+        }
+    }
+
+    private void watch() {
+        try {
+            while (!stopped) {
+                if (watcher.await(graph)) {
+                    synchronized (graph) {
+                        int reads = graph.resolve();
+                        if (log) logger.info("Read " + reads + " changed classes, " + graph.getFailures().size() + " missing");
+                    }
+                }
+            }
+        } catch (InterruptedException ie) {
+            //stop watching
+        } catch (RuntimeException re) {
+            //a closed watch service ends the loop
+            if (!stopped && log) logger.warning("Stopped watching the class path: " + re);
+        }
+    }
+
+    private void serve() {
+        while (!stopped) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException ioe) {
+                if (!stopped && log) logger.warning("Cannot accept requests: " + ioe);
+                return;
+            }
+            //closing the socket ends a write that the client does not read
+            final Future<?> deadline = deadlines.schedule(new Runnable() {
+                public void run() {
+                    close(socket);
+                }
+            }, ANSWER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            try {
+                connections.execute(new Runnable() {
+                    public void run() {
+                        serve(socket);
+                        deadline.cancel(false);
+                    }
+                });
+            } catch (RuntimeException re) {
+                //stopped meanwhile
+                close(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8);
+            String request = in.readLine();
+            if (request != null) answer(request.trim(), new PrintWriter(out));
+        } catch (IOException ioe) {
+            if (log) logger.warning("Cannot answer a request: " + ioe);
+        } finally {
+            close(socket);
+        }
+    }
+
+    private void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ioe) {
+            //nothing more is sent on it
+        }
+    }
+
+    private static ThreadFactory threads(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private void answer(String request, PrintWriter out) {
+        int space = request.indexOf(' ');
+        String command = space < 0 ? request : request.substring(0, space);
+        String argument = space < 0 ? null : request.substring(space + 1).trim();
+        if (command.equals("failures")) {
+            for (String name : getFailures()) out.println(name);
+        } else if (command.equals("resolvable") && argument != null) {
+            out.println(isResolvable(argument));
+        } else if (command.equals("which") && argument != null) {
+            String location = locate(argument);
+            if (location != null) out.println(location);
+        } else if (command.equals("stop")) {
+            out.println("stopping");
+            out.flush();
+            stop();
+        } else {
+            out.println("error: unknown request " + request);
+        }
+        out.flush();
+    }
+
+    /**
+     * Send a request to a daemon on this machine.
+     * @param port the daemon's port
+     * @param request the request line
+     * @return the lines of the answer
+     * @throws IOException if the daemon cannot be reached
+     */
+    public static List<String> query(int port, String request) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        try {
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            out.println(request);
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> lines = new ArrayList<String>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        } finally {
+            socket.close();
+        }
+    }
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        if (args.length >= 3 && args[0].equals("--query")) {
+            StringBuilder request = new StringBuilder();
+            for (int i = 2; i < args.length; ++i) {
+                if (i > 2) request.append(' ');
+                request.append(args[i]);
+            }
+            for (String line : query(Integer.parseInt(args[1]), request.toString())) {
+                System.out.println(line);
+            }
+            return;
+        }
+        String target = System.getProperty("java.class.path");
+        String jdk = null;
+        int port = DEFAULT_PORT;
+        List<String> classes = new ArrayList<String>();
+        for (int i = 0; i < args.length; ++i) {
+            String arg = args[i];
+            if ((arg.equals("-c") || arg.equals("--classpath")) && i + 1 < args.length) {
+                target = args[++i];
+            } else if ((arg.equals("-j") || arg.equals("--jdk")) && i + 1 < args.length) {
+                jdk = args[++i];
+            } else if ((arg.equals("-p") || arg.equals("--port")) && i + 1 < args.length) {
+                port = Integer.parseInt(args[++i]);
+            } else {
+                classes.add(arg);
+            }
+        }
+        PlatformIndex platform = jdk == null ? PlatformIndex.current() : PlatformIndex.load(new File(jdk));
+        AnalyzerDaemon daemon = new AnalyzerDaemon(ClassPath.of(platform, target.split(File.pathSeparator)),
+            classes.toArray(new String[classes.size()]));
+        daemon.setLogger(Logger.getLogger(AnalyzerDaemon.class.getName()));
+        System.out.println("Listening on port " + daemon.start(port));
+        daemon.await();
+    }
+}
@@ -0,0 +1,332 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.daemon;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import oops.Analyzer;
+import oops.ReferenceVisitor;
+import oops.ReferenceExtractor;
+import oops.SourceVisitor;
+import oops.classpath.ClassBuffer;
+import oops.classpath.ClassPath;
+import oops.classpath.ClassSource;
+import oops.classpath.ListableSource;
+import oops.util.ClassNameSet;
+
+/**
+ * The classes of a class path and the references between them, kept in
+ * memory so that a few changed class files can be checked again without
+ * analyzing the whole class path.  Names are fully qualified.
+ * <p>
+ * Changed classes are dropped from the graph and {@link #resolve()} reads
+ * again only the classes it no longer has, then walks the graph from the
+ * roots to find the missing classes that are still referenced.  Without
+ * explicit roots, the roots are the classes listed by each directory and
+ * jar, kept apart from the graph and listed again when an entry changes.
+ * The graph is not thread safe; callers hold its lock.
+ */
+class ClassGraph {
+    private static final String[] NONE = new String[0];
+
+    private final ClassPath classpath;
+    private final List<String> roots;
+    private final Map<String, Node> nodes = new HashMap<String, Node>();
+    private final Map<ClassSource, Set<String>> listings = new HashMap<ClassSource, Set<String>>();
+    private final ReferenceExtractor extractor = new ReferenceExtractor();
+    private ClassNameSet failures = ClassNameSet.EMPTY;
+    private int reads;
+
+    /**
+     * @param classpath the class path to resolve classes from
+     * @param roots the classes to check, or null for every class of the
+     * class path entries
+     */
+    ClassGraph(ClassPath classpath, List<String> roots) {
+        this.classpath = classpath;
+        this.roots = roots;
+    }
+
+    /**
+     * Build the graph with a full, parallel analysis.
+     */
+    void load() {
+        Collector collector = new Collector();
+        Analyzer analyzer = roots == null
+            ? new Analyzer(classpath)
+            : new Analyzer(classpath, roots.toArray(new String[roots.size()]));
+        analyzer.setDependencyVisitor(collector);
+        analyzer.run();
+        for (Map.Entry<String, String> found : collector.locations.entrySet()) {
+            List<String> references = collector.references.get(found.getKey());
+            nodes.put(found.getKey(), new Node(found.getValue(),
+                references == null ? NONE : references.toArray(new String[references.size()])));
+        }
+        //jars the analysis never read are still whole
+        classpath.splitAll();
+        for (ClassSource source : classpath.getSources()) {
+            try {
+                list(source);
+            } catch (IOException ioe) {
+                //reported by the analysis; the entry has no roots until it
+                //changes again
+                listings.put(source, new HashSet<String>());
+            }
+        }
+        for (String name : collector.missing) {
+            nodes.put(name, Node.MISSING);
+        }
+        resolve();
+    }
+
+    /**
+     * List the classes of a directory or jar again, as the roots it
+     * contributes when the graph has no explicit roots.
+     * @param source a source of the class path
+     * @throws IOException if the source cannot be listed
+     */
+    void list(ClassSource source) throws IOException {
+        if (roots != null || !(source instanceof ListableSource)) return;
+        Set<String> names = new HashSet<String>();
+        for (String name : ((ListableSource) source).classNames()) {
+            names.add(name.replace('/', '.'));
+        }
+        listings.put(source, names);
+    }
+
+    /**
+     * Forget the classes listed for a source that left the class path.
+     * @param source the source
+     */
+    void unlist(ClassSource source) {
+        listings.remove(source);
+    }
+
+    /**
+     * Add a class to the listing of a source, or remove it, as when a
+     * single class file is written or deleted.
+     * @param source a listed source
+     * @param name the fully qualified class name
+     * @param present true if the source now holds the class
+     */
+    void listed(ClassSource source, String name, boolean present) {
+        Set<String> names = listings.get(source);
+        if (names == null) return;
+        if (present) names.add(name);
+        else names.remove(name);
+    }
+
+    /**
+     * Forget a class, so that it is read again by the next resolve.
+     * @param name the fully qualified class name
+     */
+    void invalidate(String name) {
+        nodes.remove(name);
+    }
+
+    /**
+     * Forget every class read from a class path entry.
+     * @param location the location of the entry
+     */
+    void invalidateLocation(String location) {
+        for (Iterator<Node> it = nodes.values().iterator(); it.hasNext();) {
+            if (location.equals(it.next().location)) it.remove();
+        }
+    }
+
+    /**
+     * Forget every class that was not found; a changed class path may now
+     * provide it.
+     */
+    void invalidateMissing() {
+        for (Iterator<Node> it = nodes.values().iterator(); it.hasNext();) {
+            if (it.next().location == null) it.remove();
+        }
+    }
+
+    /**
+     * Forget every class.
+     */
+    void invalidateAll() {
+        nodes.clear();
+    }
+
+    /**
+     * Read the classes the graph does not have and find the missing
+     * classes reachable from the roots.
+     * @return the number of classes read
+     */
+    int resolve() {
+        reads = 0;
+        Collection<String> start = roots;
+        if (start == null) {
+            //every class listed by a directory or jar is a root, whether or
+            //not the graph still holds it
+            start = new LinkedHashSet<String>();
+            for (Set<String> names : listings.values()) {
+                start.addAll(names);
+            }
+        }
+        Set<String> seen = new HashSet<String>(start);
+        ArrayDeque<String> queue = new ArrayDeque<String>(seen);
+        List<String> missing = new ArrayList<String>();
+        while (!queue.isEmpty()) {
+            String name = queue.poll();
+            Node node = node(name);
+            if (node.location == null) {
+                missing.add(name);
+                continue;
+            }
+            for (String reference : node.references) {
+                if (seen.add(reference)) queue.add(reference);
+            }
+        }
+        failures = new ClassNameSet(missing);
+        return reads;
+    }
+
+    /**
+     * @return the classes reachable from the roots that were not found, as
+     * of the last resolve
+     */
+    ClassNameSet getFailures() {
+        return failures;
+    }
+
+    /**
+     * Find where a class is read from, whether or not the roots reach it.
+     * @param name the fully qualified class name
+     * @return the location of the class path entry, or null if the class
+     * is not found
+     */
+    String locate(String name) {
+        Node node = nodes.get(name);
+        if (node != null) return node.location;
+        //a class outside the graph is looked up without being added, so
+        //that lookups do not grow the graph
+        String internal = name.replace('.', '/');
+        if (classpath.isPlatformClass(internal)) return classpath.getPlatformIndex().getDescription();
+        ClassSource source = classpath.read(internal, ClassBuffer.get());
+        return source == null ? null : source.getLocation();
+    }
+
+    /**
+     * @return the number of classes held, found or not
+     */
+    int size() {
+        return nodes.size();
+    }
+
+    private Node node(String name) {
+        Node node = nodes.get(name);
+        if (node == null) {
+            node = read(name);
+            nodes.put(name, node);
+        }
+        return node;
+    }
+
+    private Node read(String name) {
+        ++reads;
+        String internal = name.replace('.', '/');
+        if (classpath.isPlatformClass(internal))
+            return new Node(classpath.getPlatformIndex().getDescription(), NONE);
+        ClassBuffer buffer = ClassBuffer.get();
+        ClassSource source = classpath.read(internal, buffer);
+        if (source == null) return Node.MISSING;
+        String[] references;
+        try {
+            List<String> found = extractor.extract(buffer.getBytes(), 0, buffer.getLength());
+            references = new String[found.size()];
+            for (int i = 0; i < references.length; ++i) {
+                references[i] = found.get(i).replace('/', '.');
+            }
+        } catch (RuntimeException re) {
+            //a class the parser cannot read still exists
+            references = NONE;
+        }
+        return new Node(source.getLocation(), references);
+    }
+
+    /**
+     * A class that was read, or {@link #MISSING}.
+     */
+    private static class Node {
+        static final Node MISSING = new Node(null, NONE);
+
+        final String location;
+        final String[] references;
+
+        /**
+         * @param location where the class was read from, or null if missing
+         * @param references the classes it refers to
+         */
+        Node(String location, String[] references) {
+            this.location = location;
+            this.references = references;
+        }
+    }
+
+    /**
+     * Collects the classes and references of the first, full analysis.
+     */
+    private static class Collector implements SourceVisitor, ReferenceVisitor {
+        final Map<String, String> locations = new HashMap<String, String>();
+        final Map<String, List<String>> references = new HashMap<String, List<String>>();
+        final Set<String> missing = new HashSet<String>();
+
+        public synchronized void success(String name, String source, String referrer) {
+            locations.put(name, source);
+        }
+
+        public synchronized void fail(String name, String referrer) {
+            missing.add(name);
+        }
+
+        public synchronized void reference(String referrer, String name) {
+            List<String> list = references.get(referrer);
+            if (list == null) references.put(referrer, list = new ArrayList<String>());
+            list.add(name);
+        }
+
+        public void success(String name) {
+            success(name, null, null);
+        }
+
+        public void fail(String name) {
+            fail(name, null);
+        }
+
+        public void end() {}
+    }
+}
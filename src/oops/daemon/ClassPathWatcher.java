@@ -0,0 +1,286 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.daemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import oops.classpath.ClassPath;
+import oops.classpath.ClassSource;
+import oops.classpath.DirectorySource;
+import oops.classpath.JarSource;
+import oops.classpath.ListableSource;
+import oops.classpath.NestedJarSource;
+
+/**
+ * Watches the directories and jars of a class path and drops the classes
+ * that changed from a {@link ClassGraph}.  Class path directories are
+ * watched with every subdirectory; jars through the directory that holds
+ * them, and a rewritten jar is reopened in its place on the class path,
+ * together with the jars nested in it.
+ */
+class ClassPathWatcher {
+    /** How long the file system must stay quiet before changes are applied. */
+    static final long QUIET_MILLIS = 50;
+
+    private final ClassPath classpath;
+    private final ClassGraph graph;
+    private final WatchService watcher;
+    private final Map<WatchKey, Watched> keys = new HashMap<WatchKey, Watched>();
+    private final Map<Path, List<ClassSource>> jars = new HashMap<Path, List<ClassSource>>();
+
+    protected Logger logger;
+    protected boolean log = false;
+
+    /**
+     * Start watching every directory and jar of a class path.
+     * @param classpath the class path
+     * @param graph the graph of its classes
+     * @throws IOException if the file system cannot be watched
+     */
+    ClassPathWatcher(ClassPath classpath, ClassGraph graph) throws IOException {
+        this.classpath = classpath;
+        this.graph = graph;
+        this.watcher = FileSystems.getDefault().newWatchService();
+        for (ClassSource source : classpath.getSources()) {
+            if (source instanceof DirectorySource) {
+                DirectorySource directory = (DirectorySource) source;
+                registerAll(directory.getRoot().toPath(), directory);
+            } else if (source instanceof JarSource) {
+                watchJar(((JarSource) source).getFile(), source);
+            } else if (source instanceof NestedJarSource) {
+                watchJar(((NestedJarSource) source).getOuter().getFile(), source);
+            }
+        }
+    }
+
+    void setLogger(Logger logger) {
+        this.logger = logger;
+        this.log = logger != null;
+    }
+
+    /**
+     * Wait for changes and drop the changed classes from the graph.  Events
+     * are gathered until the file system has been quiet for
+     * {@link #QUIET_MILLIS}, so a jar being written is reopened once.
+     * @param lock the lock guarding the graph
+     * @return true if the graph changed and should be resolved
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean await(Object lock) throws InterruptedException {
+        List<WatchKey> ready = new ArrayList<WatchKey>();
+        ready.add(watcher.take());
+        WatchKey key;
+        while ((key = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+            ready.add(key);
+        }
+        boolean changed = false;
+        synchronized (lock) {
+            for (WatchKey next : ready) {
+                Watched watched = keys.get(next);
+                for (WatchEvent<?> event : next.pollEvents()) {
+                    if (watched != null) changed |= apply(watched, event);
+                }
+                if (!next.reset()) keys.remove(next);
+            }
+            if (changed) graph.invalidateMissing();
+        }
+        return changed;
+    }
+
+    /**
+     * Stop watching.
+     */
+    void close() {
+        try {
+            watcher.close();
+        } catch (IOException ioe) {
+            if (log) logger.warning("Cannot close the watch service: " + ioe);
+        }
+    }
+
+    private boolean apply(Watched watched, WatchEvent<?> event) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            //events were lost; start over
+            if (log) logger.warning("Missed file system events under " + watched.dir);
+            for (Path jar : jars.keySet()) {
+                reopen(jar);
+            }
+            for (ClassSource source : classpath.getSources()) {
+                if (source instanceof DirectorySource) list((DirectorySource) source);
+            }
+            graph.invalidateAll();
+            return true;
+        }
+        Path path = watched.dir.resolve((Path) event.context());
+        if (jars.containsKey(path.toAbsolutePath())) {
+            reopen(path.toAbsolutePath());
+            return true;
+        }
+        if (watched.root == null) return false;
+        String name = path.getFileName().toString();
+        if (name.endsWith(".class")) {
+            Path relative = watched.root.getRoot().toPath().relativize(path);
+            String internal = relative.toString().replace(File.separatorChar, '/');
+            String className = internal.substring(0, internal.length() - 6).replace('/', '.');
+            graph.listed(watched.root, className, Files.exists(path));
+            graph.invalidate(className);
+            return true;
+        }
+        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+            //a new package, perhaps moved in whole; its classes may already
+            //be there before it is watched
+            try {
+                registerAll(path, watched.root);
+            } catch (IOException ioe) {
+                if (log) logger.warning("Cannot watch the directory " + path + ": " + ioe.getMessage());
+            }
+            list(watched.root);
+            graph.invalidateLocation(watched.root.getLocation());
+            return true;
+        }
+        if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+            //a package may have gone, and its classes with it
+            list(watched.root);
+            graph.invalidateLocation(watched.root.getLocation());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reopen every source read from a jar, in its place on the class path.
+     * A fat jar keeps the nested jars it had when the daemon started.
+     */
+    private void reopen(Path path) {
+        List<ClassSource> replacements = new ArrayList<ClassSource>();
+        JarSource outer = null;
+        //a fat jar may have been split since it was watched
+        List<ClassSource> sources = new ArrayList<ClassSource>();
+        for (ClassSource source : jars.get(path)) {
+            List<ClassSource> nested = classpath.split(source);
+            sources.addAll(nested == null ? Collections.singletonList(source) : nested);
+        }
+        for (ClassSource source : sources) {
+            ClassSource replacement;
+            if (source instanceof NestedJarSource) {
+                NestedJarSource nested = (NestedJarSource) source;
+                //the sources of one fat jar share its mapping
+                if (outer == null) outer = new JarSource(nested.getOuter().getFile());
+                replacement = new NestedJarSource(outer, nested.getEntry());
+            } else if (((JarSource) source).getOuter() != null) {
+                JarSource jar = (JarSource) source;
+                if (outer == null) outer = new JarSource(jar.getFile());
+                replacement = new JarSource(outer, jar.getPrefix());
+            } else {
+                JarSource jar = (JarSource) source;
+                replacement = new JarSource(jar.getFile(), jar.getPrefix());
+            }
+            if (!classpath.replace(source, replacement)) {
+                replacement.close();
+                continue;
+            }
+            source.close();
+            replacements.add(replacement);
+            graph.invalidateLocation(source.getLocation());
+            graph.unlist(source);
+            try {
+                graph.list(replacement);
+                //classes new in the jar may shadow later entries
+                for (String name : ((ListableSource) replacement).classNames()) {
+                    graph.invalidate(name.replace('/', '.'));
+                }
+            } catch (IOException ioe) {
+                if (log) logger.warning("Cannot read the jar " + source.getLocation() + ": " + ioe.getMessage());
+            }
+        }
+        jars.put(path, replacements);
+    }
+
+    private void list(DirectorySource directory) {
+        try {
+            graph.list(directory);
+        } catch (IOException ioe) {
+            if (log) logger.warning("Cannot list the directory " + directory.getLocation() + ": " + ioe.getMessage());
+        }
+    }
+
+    private void watchJar(File file, ClassSource source) throws IOException {
+        Path jar = file.toPath().toAbsolutePath();
+        List<ClassSource> sources = jars.get(jar);
+        if (sources == null) {
+            jars.put(jar, sources = new ArrayList<ClassSource>());
+            register(jar.getParent(), null);
+        }
+        sources.add(source);
+    }
+
+    private void registerAll(Path start, final DirectorySource root) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                register(dir, root);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void register(Path dir, DirectorySource root) throws IOException {
+        WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        //the same directory may hold jars and be part of a class directory
+        Watched watched = keys.get(key);
+        if (watched == null || watched.root == null) keys.put(key, new Watched(dir, root));
+    }
+
+    /**
+     * A watched directory and the class path directory it belongs to, if
+     * any.
+     */
+    private static class Watched {
+        final Path dir;
+        final DirectorySource root;
+
+        Watched(Path dir, DirectorySource root) {
+            this.dir = dir;
+            this.root = root;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.format;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes records as a length-prefixed binary stream.  The stream starts
+ * with the magic number 0x4f4f5052 and a format version, both as ints.
+ * Each record follows as an int giving the length of the rest of the
+ * record, a status byte (0 for success, 1 for failure), then the class
+ * name, source and referrer in modified UTF-8 as written by
+ * {@link DataOutputStream#writeUTF(String)}.  An unknown source or
+ * referrer is written as an empty string.
+ */
+public class BinaryRecordWriter extends RecordWriter {
+    /** The magic number at the start of the stream. */
+    public static final int MAGIC = 0x4f4f5052;
+    /** The version of the record layout. */
+    public static final int VERSION = 1;
+    
+    private final DataOutputStream data;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordData = new DataOutputStream(record);
+    
+    public BinaryRecordWriter(OutputStream out) {
+        super(out);
+        this.data = new DataOutputStream(this.out);
+    }
+    
+    @Override
+    protected void writeHeader() throws IOException {
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+    }
+    
+    @Override
+    protected void writeRecord(String name, String status, String source, String referrer) throws IOException {
+        record.reset();
+        recordData.writeByte(status.equals(SUCCESS) ? 0 : 1);
+        recordData.writeUTF(name);
+        recordData.writeUTF(source == null ? "" : source);
+        recordData.writeUTF(referrer == null ? "" : referrer);
+        data.writeInt(record.size());
+        record.writeTo(data);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.format;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import oops.SourceVisitor;
+
+/**
+ * Writes one record per analyzed class to a stream, as results arrive.
+ * Records are written through a buffer under a lock, so the analysis
+ * threads can report concurrently; the stream is flushed at the end of the
+ * analysis but not closed.  The first write error stops further output and
+ * is available from {@link #getError()}.
+ */
+public abstract class RecordWriter implements SourceVisitor {
+    /** The status of a class that was found. */
+    public static final String SUCCESS = "success";
+    /** The status of a class that could not be found. */
+    public static final String FAILURE = "failure";
+    
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    protected final OutputStream out;
+    private IOException error;
+    private boolean started;
+    
+    protected RecordWriter(OutputStream out) {
+        this.out = new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+    
+    /**
+     * Create a writer for a named format.
+     * @param format "jsonl" or "binary"
+     * @param out the stream to write to
+     * @return the writer
+     * @throws IllegalArgumentException if the format is unknown
+     */
+    public static RecordWriter forFormat(String format, OutputStream out) {
+        if (format.equals("jsonl")) return new JsonLinesWriter(out);
+        if (format.equals("binary")) return new BinaryRecordWriter(out);
+        throw new IllegalArgumentException("Unknown output format: " + format);
+    }
+    
+    public void success(String name) {
+        success(name, null, null);
+    }
+    
+    public void fail(String name) {
+        fail(name, null);
+    }
+    
+    public void success(String name, String source, String referrer) {
+        write(name, SUCCESS, source, referrer);
+    }
+    
+    public void fail(String name, String referrer) {
+        write(name, FAILURE, null, referrer);
+    }
+    
+    public synchronized void end() {
+        if (error != null) return;
+        try {
+            start();
+            out.flush();
+        } catch (IOException ioe) {
+            error = ioe;
+        }
+    }
+    
+    /**
+     * @return the first error writing the stream, or null
+     */
+    public synchronized IOException getError() {
+        return error;
+    }
+    
+    private synchronized void write(String name, String status, String source, String referrer) {
+        if (error != null) return;
+        try {
+            start();
+            writeRecord(name, status, source, referrer);
+        } catch (IOException ioe) {
+            error = ioe;
+        }
+    }
+    
+    private void start() throws IOException {
+        if (started) return;
+        started = true;
+        writeHeader();
+    }
+    
+    /**
+     * Write whatever precedes the first record, even if there is none.
+     * Called with the writer's lock held.
+     */
+    protected void writeHeader() throws IOException {
+    }
+    
+    /**
+     * Write one record.  Called with the writer's lock held.
+     * @param name the fully qualified class name
+     * @param status {@link #SUCCESS} or {@link #FAILURE}
+     * @param source the class path entry the class was read from, or null
+     * @param referrer the class that first referred to it, or null
+     */
+    protected abstract void writeRecord(String name, String status, String source, String referrer) throws IOException;
+}
@@ -0,0 +1,278 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.linkage;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import oops.LinkageVisitor;
+import oops.util.ClassIndex;
+
+/**
+ * The Linkage Checker verifies that every field and method a class refers
+ * to exists in the class it names or one of that class's supertypes.
+ * Classes are recorded while they are parsed, one {@link Recorder} per
+ * worker thread, and the references are resolved once every class has been
+ * recorded.
+ * <p>
+ * A reference is only reported when the named class and all of its
+ * supertypes were recorded.  Classes that were never parsed, such as
+ * missing classes or platform classes recognized by an index, cannot be
+ * checked and their members are taken to exist.
+ */
+public class LinkageChecker {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    private static final Closure UNKNOWN = new Closure(new int[0], false);
+
+    private final ClassIndex classes = new ClassIndex();
+    private final ClassIndex names = new ClassIndex();
+    private final ClassIndex descriptors = new ClassIndex();
+    private final AtomicReferenceArray<AtomicReferenceArray<MemberTable>> tables =
+        new AtomicReferenceArray<AtomicReferenceArray<MemberTable>>(1 << 19);
+
+    /**
+     * @return a new recorder, to be confined to one thread
+     */
+    public Recorder newRecorder() {
+        return new Recorder();
+    }
+
+    /**
+     * Resolve every recorded reference and report the ones that fail.  This
+     * must only be called once all recorders have finished.
+     * @param visitor the visitor told about unresolved references
+     * @return the number of unresolved references
+     */
+    public int check(LinkageVisitor visitor) {
+        Closure[] closures = new Closure[classes.size()];
+        int init = names.get("<init>");
+        int[] polymorphic = {classes.get("java/lang/invoke/MethodHandle"), classes.get("java/lang/invoke/VarHandle")};
+        Set<String> reported = new HashSet<String>();
+        int unresolved = 0;
+        for (int id = 0; id < closures.length; ++id) {
+            MemberTable table = table(id);
+            if (table == null || table.sites == null) continue;
+            int[] sites = table.sites;
+            for (int s = 0; s < sites.length; s += MemberTable.SITE) {
+                int owner = sites[s];
+                int name = sites[s + 1];
+                int desc = sites[s + 2];
+                MemberTable target = table(owner);
+                if (target == null || target.declares(name, desc)) continue;
+                //constructors are never inherited
+                if (name == init) {
+                    if (report(visitor, reported, id, sites, s)) ++unresolved;
+                    continue;
+                }
+                //invokeExact and friends link against any descriptor
+                if ((owner == polymorphic[0] || owner == polymorphic[1]) && target.declaresName(name)) continue;
+                if (!resolves(closure(owner, closures), name, desc)) {
+                    if (report(visitor, reported, id, sites, s)) ++unresolved;
+                }
+            }
+        }
+        return unresolved;
+    }
+
+    private boolean resolves(Closure closure, int name, int desc) {
+        for (int id : closure.ids) {
+            if (table(id).declares(name, desc)) return true;
+        }
+        //a supertype we know nothing about may declare the member
+        return !closure.complete;
+    }
+
+    private boolean report(LinkageVisitor visitor, Set<String> reported, int id, int[] sites, int s) {
+        String referrer = classes.name(id).replace('/', '.');
+        String method = names.name(sites[s + 3]) + descriptors.name(sites[s + 4]);
+        String owner = classes.name(sites[s]).replace('/', '.');
+        String name = names.name(sites[s + 1]);
+        String desc = descriptors.name(sites[s + 2]);
+        if (!reported.add(referrer + '.' + method + ' ' + owner + '.' + name + desc)) return false;
+        visitor.unresolved(referrer, method, owner, name, desc);
+        return true;
+    }
+
+    /**
+     * Return a class and all of its supertypes, memoized per class.  The
+     * closure is incomplete if any supertype was not recorded.
+     */
+    private Closure closure(int id, Closure[] closures) {
+        Closure closure = closures[id];
+        if (closure != null) return closure;
+        MemberTable table = table(id);
+        if (table == null) return closures[id] = UNKNOWN;
+        //guards against circular hierarchies in broken class paths
+        closures[id] = UNKNOWN;
+
+        int[] ids = {id};
+        int count = 1;
+        boolean complete = true;
+        int supers = table.interfaces.length + (table.superId >= 0 ? 1 : 0);
+        for (int i = 0; i < supers; ++i) {
+            int superId = i < table.interfaces.length ? table.interfaces[i] : table.superId;
+            Closure parent = closure(superId, closures);
+            complete &= parent.complete;
+            for (int p : parent.ids) {
+                if (contains(ids, count, p)) continue;
+                if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+                ids[count++] = p;
+            }
+        }
+        return closures[id] = new Closure(Arrays.copyOf(ids, count), complete);
+    }
+
+    private static boolean contains(int[] ids, int count, int id) {
+        for (int i = 0; i < count; ++i) {
+            if (ids[i] == id) return true;
+        }
+        return false;
+    }
+
+    private MemberTable table(int id) {
+        AtomicReferenceArray<MemberTable> chunk = tables.get(id >>> CHUNK_BITS);
+        return chunk == null ? null : chunk.get(id & CHUNK_MASK);
+    }
+
+    private void publish(int id, MemberTable table) {
+        int c = id >>> CHUNK_BITS;
+        AtomicReferenceArray<MemberTable> chunk = tables.get(c);
+        if (chunk == null) {
+            tables.compareAndSet(c, null, new AtomicReferenceArray<MemberTable>(1 << CHUNK_BITS));
+            chunk = tables.get(c);
+        }
+        chunk.set(id & CHUNK_MASK, table);
+    }
+
+    private static class Closure {
+        final int[] ids;
+        final boolean complete;
+
+        Closure(int[] ids, boolean complete) {
+            this.ids = ids;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * Records the members and member references of one class at a time, as
+     * the class is parsed.  Call {@link #begin(boolean)} before parsing and
+     * {@link #end()} once the class parsed cleanly; a class that is begun
+     * again without being ended is dropped.
+     */
+    public final class Recorder {
+        private int id = -1;
+        private int superId;
+        private int[] interfaces;
+        private boolean checkSites;
+        private long[] members = new long[64];
+        private int memberCount;
+        private int[] sites = new int[MemberTable.SITE * 64];
+        private int siteInts;
+        private int callerName;
+        private int callerDesc;
+
+        private Recorder() {
+        }
+
+        /**
+         * Start recording a class.
+         * @param checkSites whether the member references made by the class
+         * are to be checked, or only its own members recorded
+         */
+        public void begin(boolean checkSites) {
+            this.checkSites = checkSites;
+            id = -1;
+            memberCount = 0;
+            siteInts = 0;
+        }
+
+        /**
+         * @param name the internal name of the class
+         * @param superName the internal name of the superclass, or null
+         * @param interfaceNames the internal names of the direct superinterfaces
+         */
+        public void visitClass(String name, String superName, String[] interfaceNames) {
+            id = classes.intern(name);
+            superId = superName == null ? -1 : classes.intern(superName);
+            interfaces = new int[interfaceNames == null ? 0 : interfaceNames.length];
+            for (int i = 0; i < interfaces.length; ++i) {
+                interfaces[i] = classes.intern(interfaceNames[i]);
+            }
+        }
+
+        /**
+         * @param name the field name
+         * @param desc the field descriptor
+         */
+        public void visitField(String name, String desc) {
+            declare(names.intern(name), descriptors.intern(desc));
+        }
+
+        /**
+         * Record a method.  References that follow are made by this method.
+         * @param name the method name
+         * @param desc the method descriptor
+         */
+        public void visitMethod(String name, String desc) {
+            callerName = names.intern(name);
+            callerDesc = descriptors.intern(desc);
+            declare(callerName, callerDesc);
+        }
+
+        /**
+         * Record a field access or method call made by the current method.
+         * @param owner the internal name of the class the reference names
+         * @param name the member name
+         * @param desc the member descriptor
+         */
+        public void visitReference(String owner, String name, String desc) {
+            //array types only inherit the members of Object
+            if (!checkSites || owner.startsWith("[")) return;
+            if (siteInts + MemberTable.SITE > sites.length) sites = Arrays.copyOf(sites, sites.length * 2);
+            sites[siteInts++] = classes.intern(owner);
+            sites[siteInts++] = names.intern(name);
+            sites[siteInts++] = descriptors.intern(desc);
+            sites[siteInts++] = callerName;
+            sites[siteInts++] = callerDesc;
+        }
+
+        /**
+         * Publish the class recorded since {@link #begin(boolean)}.
+         */
+        public void end() {
+            if (id < 0) return;
+            int[] classSites = checkSites && siteInts > 0 ? Arrays.copyOf(sites, siteInts) : null;
+            publish(id, new MemberTable(superId, interfaces, members, memberCount, classSites));
+            id = -1;
+        }
+
+        private void declare(int name, int desc) {
+            if (memberCount == members.length) members = Arrays.copyOf(members, memberCount * 2);
+            members[memberCount++] = MemberTable.key(name, desc);
+        }
+    }
+}
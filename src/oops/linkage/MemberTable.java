@@ -0,0 +1,106 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.linkage;
+
+/**
+ * The members one class declares, along with its direct supertypes and the
+ * member references made by its code.  Members are held as name and
+ * descriptor id pairs packed into longs, in a linear probing table.  Fields
+ * and methods share the table; their descriptors never collide.
+ */
+final class MemberTable {
+    /** The number of ints used by one reference in {@link #sites}. */
+    static final int SITE = 5;
+
+    final int superId;
+    final int[] interfaces;
+    /**
+     * The member references, as owner, name and descriptor ids followed by
+     * the name and descriptor ids of the referring method; null if the
+     * references of this class are not checked.
+     */
+    final int[] sites;
+    private final long[] keys;
+
+    /**
+     * @param superId the id of the superclass, or -1 if there is none
+     * @param interfaces the ids of the direct superinterfaces
+     * @param members the member keys, see {@link #key(int, int)}
+     * @param memberCount the number of keys in members
+     * @param sites the references, or null if they are not checked
+     */
+    MemberTable(int superId, int[] interfaces, long[] members, int memberCount, int[] sites) {
+        this.superId = superId;
+        this.interfaces = interfaces;
+        this.sites = sites;
+        int capacity = 4;
+        while (capacity < memberCount * 2) capacity <<= 1;
+        keys = new long[capacity];
+        int mask = capacity - 1;
+        for (int m = 0; m < memberCount; ++m) {
+            //slots hold key + 1, so that zero marks a free slot
+            long stored = members[m] + 1;
+            int i = spread(members[m]) & mask;
+            while (keys[i] != 0 && keys[i] != stored) i = (i + 1) & mask;
+            keys[i] = stored;
+        }
+    }
+
+    /**
+     * Check whether this class declares a member.
+     * @param name the member name id
+     * @param desc the member descriptor id
+     * @return true if the member is declared here, not inherited
+     */
+    boolean declares(int name, int desc) {
+        long key = key(name, desc);
+        long stored = key + 1;
+        int mask = keys.length - 1;
+        for (int i = spread(key) & mask; keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == stored) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check whether this class declares a member of a given name with any
+     * descriptor.
+     * @param name the member name id
+     * @return true if some member has the name
+     */
+    boolean declaresName(int name) {
+        for (long stored : keys) {
+            if (stored != 0 && (int) ((stored - 1) >>> 32) == name) return true;
+        }
+        return false;
+    }
+
+    static long key(int name, int desc) {
+        return ((long) name << 32) | (desc & 0xffffffffL);
+    }
+
+    private static int spread(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
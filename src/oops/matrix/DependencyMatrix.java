@@ -0,0 +1,250 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.matrix;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import oops.classpath.ClassPath;
+import oops.classpath.ClassSource;
+
+/**
+ * Counts the references between the entries of a class path while an
+ * analysis runs, in a dense matrix indexed by entry.  Two more columns
+ * count references to indexed platform classes and to missing classes.
+ * <p>
+ * Only the entry each class was read from is kept, by class id.  A
+ * reference to a class that has not been read yet waits, as the index of
+ * the referring entry, until the class is read; then it is counted and
+ * dropped.
+ */
+public class DependencyMatrix {
+    private static final int SEGMENT_BITS = 14;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+    private static final int STRIPES = 64;
+
+    private final Map<ClassSource, Integer> columns = new IdentityHashMap<ClassSource, Integer>();
+    private final List<String> entries = new ArrayList<String>();
+    private final int size;
+    private final int platform;
+    private final int missing;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray roots;
+    //the entry of every class id plus one, or zero if not read yet
+    private final AtomicReferenceArray<AtomicIntegerArray> entryOf =
+        new AtomicReferenceArray<AtomicIntegerArray>(1 << 12);
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * @param classpath the class path to count the entries of; its fat jars
+     * are split now, so that each nested jar is an entry, and sources added
+     * to it later are not counted
+     */
+    public DependencyMatrix(ClassPath classpath) {
+        classpath.splitAll();
+        for (ClassSource source : classpath.getSources()) {
+            columns.put(source, Integer.valueOf(entries.size()));
+            entries.add(source.getLocation());
+        }
+        platform = entries.size();
+        entries.add(classpath.getPlatformIndex() == null ? "platform" : classpath.getPlatformIndex().getDescription());
+        missing = entries.size();
+        entries.add("missing");
+        size = entries.size();
+        counts = new AtomicLongArray(size * size);
+        roots = new AtomicLongArray(size);
+        for (int i = 0; i < STRIPES; ++i) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * @param source a class path source
+     * @return the entry index of the source, or -1 if it is not counted
+     */
+    public int entryOf(ClassSource source) {
+        Integer column = columns.get(source);
+        return column == null ? -1 : column.intValue();
+    }
+
+    /**
+     * @return the entry index of indexed platform classes
+     */
+    public int getPlatformEntry() {
+        return platform;
+    }
+
+    /**
+     * @return the entry index of missing classes
+     */
+    public int getMissingEntry() {
+        return missing;
+    }
+
+    /**
+     * Count a reference from a class read from an entry.
+     * @param from the entry index of the referring class
+     * @param id the class id of the referenced class
+     */
+    public void reference(int from, int id) {
+        int to = get(id);
+        if (to > 0) {
+            counts.incrementAndGet(from * size + to - 1);
+            return;
+        }
+        Stripe stripe = stripes[id & (STRIPES - 1)];
+        synchronized (stripe) {
+            to = get(id);
+            if (to > 0)
+                counts.incrementAndGet(from * size + to - 1);
+            else
+                stripe.add(id, from);
+        }
+    }
+
+    /**
+     * Record the entry a class was read from, and count the references to
+     * it that were waiting.
+     * @param id the class id
+     * @param entry the entry index, {@link #getPlatformEntry()} or
+     * {@link #getMissingEntry()}
+     * @param root true if the class was named by the analysis rather than
+     * referred to or listed
+     */
+    public void found(int id, int entry, boolean root) {
+        if (root) roots.incrementAndGet(entry);
+        Stripe stripe = stripes[id & (STRIPES - 1)];
+        synchronized (stripe) {
+            segment(id >>> SEGMENT_BITS).set(id & SEGMENT_MASK, entry + 1);
+            int[] waiting = stripe.remove(id);
+            if (waiting == null) return;
+            for (int i = 1; i <= waiting[0]; ++i) {
+                counts.incrementAndGet(waiting[i] * size + entry);
+            }
+        }
+    }
+
+    /**
+     * @return the entry locations, followed by the platform and missing
+     * columns
+     */
+    public List<String> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @param from the entry index of the referring classes
+     * @param to the entry index of the referenced classes
+     * @return the number of references counted
+     */
+    public long get(int from, int to) {
+        return counts.get(from * size + to);
+    }
+
+    /**
+     * List the class path entries nothing depends on: no other entry
+     * refers to their classes and no class named by the analysis was read
+     * from them.  Without named classes, these are the entries no other
+     * entry uses.
+     * @return the locations of the entries
+     */
+    public List<String> getUnreferenced() {
+        List<String> unreferenced = new ArrayList<String>();
+        for (int to = 0; to < platform; ++to) {
+            long inbound = roots.get(to);
+            for (int from = 0; from < platform && inbound == 0; ++from) {
+                if (from != to) inbound += get(from, to);
+            }
+            if (inbound == 0) unreferenced.add(entries.get(to));
+        }
+        return unreferenced;
+    }
+
+    /**
+     * Print the entries, the references counted between them, skipping
+     * empty cells, and the unreferenced entries.
+     * @param out the stream to print to
+     */
+    public void print(PrintStream out) {
+        out.println("Entries:");
+        for (int i = 0; i < size; ++i) {
+            out.printf("%5d  %s%n", i, entries.get(i));
+        }
+        out.println("References (from -> to: count):");
+        for (int from = 0; from < platform; ++from) {
+            for (int to = 0; to < size; ++to) {
+                long count = get(from, to);
+                if (count > 0) out.printf("%5d -> %d: %d%n", from, to, count);
+            }
+        }
+        out.println("Unreferenced entries:");
+        for (String entry : getUnreferenced()) {
+            out.println("       " + entry);
+        }
+    }
+
+    private int get(int id) {
+        AtomicIntegerArray segment = entryOf.get(id >>> SEGMENT_BITS);
+        return segment == null ? 0 : segment.get(id & SEGMENT_MASK);
+    }
+
+    private AtomicIntegerArray segment(int s) {
+        AtomicIntegerArray segment = entryOf.get(s);
+        if (segment == null) {
+            entryOf.compareAndSet(s, null, new AtomicIntegerArray(1 << SEGMENT_BITS));
+            segment = entryOf.get(s);
+        }
+        return segment;
+    }
+
+    /**
+     * The references waiting for a share of the classes, as the entry
+     * indexes of the referring classes, counted in the first element.
+     */
+    private static class Stripe {
+        private final Map<Integer, int[]> waiting = new HashMap<Integer, int[]>();
+
+        void add(int id, int from) {
+            Integer key = Integer.valueOf(id);
+            int[] list = waiting.get(key);
+            if (list == null) {
+                waiting.put(key, list = new int[4]);
+            } else if (list[0] + 1 == list.length) {
+                waiting.put(key, list = Arrays.copyOf(list, list.length * 2));
+            }
+            list[++list[0]] = from;
+        }
+
+        int[] remove(int id) {
+            return waiting.remove(Integer.valueOf(id));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.shard;
+
+import java.util.List;
+
+/**
+ * One shard of an analysis split across processes.  A sharded Analyzer
+ * only analyzes the classes its shard owns, hands references to other
+ * classes to the shard, and asks the shard for more work instead of ending
+ * when it runs out.  All methods are called from the Analyzer's dispatcher
+ * thread.
+ */
+public interface Shard {
+    /**
+     * @param name the internal class name
+     * @return true if this shard analyzes the class
+     */
+    boolean owns(String name);
+    
+    /**
+     * Pass on a referenced class that another shard owns.
+     * @param name the internal class name
+     */
+    void forward(String name);
+    
+    /**
+     * Called whenever the analysis has run out of work.
+     * @return classes to continue with, an empty list to wait for more, or
+     * null to end the analysis
+     */
+    List<String> idle();
+}
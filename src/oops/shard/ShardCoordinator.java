@@ -0,0 +1,317 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.shard;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import oops.util.ClassNameSet;
+
+/**
+ * Splits an analysis across several worker processes, each with a heap of
+ * its own.  Every class belongs to the shard its name hashes to.  Workers
+ * list the class path themselves and keep their own classes; references to
+ * other shards' classes come back to the coordinator, which hands each one
+ * to its owner once.  The analysis is over when every worker has gone idle
+ * after being sent everything routed to it.
+ * <p>
+ * The merged results do not depend on timing or shard count, and are
+ * returned as sorted sets.
+ */
+public class ShardCoordinator {
+    private final int shards;
+    private final String classpath;
+    private final String jdk;
+    private final List<String> jvmOptions = new ArrayList<String>();
+    private final Object lock = new Object();
+    private final Set<String> routed = new HashSet<String>();
+    private final Set<String> successes = new HashSet<String>();
+    private final Set<String> failures = new HashSet<String>();
+    private Worker[] workers;
+    private int failFast;
+    private boolean started;
+    private boolean done;
+    private boolean failedFast;
+    private IOException error;
+    private ClassNameSet successSet;
+    private ClassNameSet failureSet;
+
+    /**
+     * @param shards the number of worker processes
+     * @param classpath the class path to analyze
+     * @param jdk the Java home to check platform classes against, or null
+     * for the platform the workers run on
+     */
+    public ShardCoordinator(int shards, String classpath, String jdk) {
+        this.shards = shards;
+        this.classpath = classpath;
+        this.jdk = jdk;
+    }
+
+    /**
+     * Return the shard that owns a class.  The hash of a String is fixed by
+     * the language, so every process agrees on it.
+     * @param name the internal class name
+     * @param shards the number of shards
+     * @return the shard index
+     */
+    public static int shardOf(String name, int shards) {
+        return (name.hashCode() & 0x7fffffff) % shards;
+    }
+
+    /**
+     * Add options for the worker JVMs, such as a heap size.
+     * @param options the JVM options
+     */
+    public void addJvmOptions(String... options) {
+        for (String option : options) {
+            jvmOptions.add(option);
+        }
+    }
+
+    /**
+     * Stop the analysis once a number of classes are found missing.  The
+     * workers are then ended without finishing their work, and the results
+     * hold what was reported until then.
+     * @param limit the number of missing classes to stop at, or 0 to never
+     * stop early
+     */
+    public void setFailFast(int limit) {
+        this.failFast = limit;
+    }
+
+    /**
+     * @return whether the last run stopped at its fail-fast limit
+     */
+    public boolean isFailedFast() {
+        return failedFast;
+    }
+
+    /**
+     * Run the analysis and wait for it to finish.
+     * @param classes the fully qualified names of the classes to analyze,
+     * or null for every class in the class path
+     * @throws IOException if a worker cannot be started or fails
+     */
+    public void run(Collection<String> classes) throws IOException, InterruptedException {
+        workers = new Worker[shards];
+        try {
+            for (int i = 0; i < shards; ++i) {
+                workers[i] = new Worker(i, classes == null);
+            }
+            synchronized (lock) {
+                if (classes != null) {
+                    for (String clazz : classes) {
+                        route(clazz.trim().replace('.', '/'));
+                    }
+                }
+                flushAll();
+                //workers may have gone idle before their roots were sent
+                started = true;
+                checkDone();
+                while (!done && error == null) lock.wait();
+            }
+            //workers stopped early are destroyed below, unfinished
+            if (!failedFast) {
+                for (Worker worker : workers) {
+                    worker.finish();
+                }
+            }
+            if (error != null) throw error;
+        } finally {
+            for (Worker worker : workers) {
+                if (worker != null) worker.process.destroy();
+            }
+        }
+        successSet = new ClassNameSet(successes);
+        failureSet = new ClassNameSet(failures);
+    }
+
+    /**
+     * @return the fully qualified names of the classes found, sorted
+     */
+    public ClassNameSet getSuccesses() {
+        return successSet;
+    }
+
+    /**
+     * @return the fully qualified names of the classes not found, sorted
+     */
+    public ClassNameSet getFailures() {
+        return failureSet;
+    }
+
+    /**
+     * Send a class to its owner, unless it was sent before.  Called with
+     * the lock held.
+     */
+    private void route(String name) throws IOException {
+        if (name.length() == 0 || !routed.add(name)) return;
+        workers[shardOf(name, shards)].send(name);
+    }
+
+    private void flushAll() throws IOException {
+        for (Worker worker : workers) {
+            worker.flush();
+        }
+    }
+
+    /**
+     * Handle one message of a worker.  Called with the lock held.
+     */
+    private void receive(Worker worker, String line) throws IOException {
+        //results of workers stopped early are left out
+        if (done) return;
+        if (line.startsWith("OK ")) {
+            successes.add(line.substring(3).replace('/', '.'));
+        } else if (line.startsWith("FAIL ")) {
+            if (failures.add(line.substring(5).replace('/', '.')) && failures.size() == failFast) {
+                failedFast = true;
+                done = true;
+                lock.notifyAll();
+            }
+        } else if (line.startsWith("REF ")) {
+            route(line.substring(4));
+        } else if (line.startsWith("IDLE ")) {
+            worker.idleAt = Integer.parseInt(line.substring(5));
+            checkDone();
+        }
+    }
+
+    /**
+     * End the workers if all are idle.  A worker only reports idle after the
+     * references it found, so once every worker is idle having been sent
+     * all that was routed to it, no work is left.  Called with the lock held.
+     */
+    private void checkDone() throws IOException {
+        if (!started || done) return;
+        for (Worker w : workers) {
+            if (w.idleAt != w.sent) return;
+        }
+        done = true;
+        for (Worker w : workers) {
+            w.end();
+        }
+        lock.notifyAll();
+    }
+
+    private void fail(IOException ioe) {
+        synchronized (lock) {
+            if (error == null && !done) error = ioe;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * One worker process and the thread reading its messages.
+     */
+    private class Worker implements Runnable {
+        final int index;
+        final Process process;
+        final Writer in;
+        final Thread reader;
+        int sent;
+        int idleAt = -1;
+
+        Worker(int index, boolean all) throws IOException {
+            this.index = index;
+            List<String> command = new ArrayList<String>();
+            command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+            command.addAll(jvmOptions);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(ShardWorker.class.getName());
+            command.add(String.valueOf(index));
+            command.add(String.valueOf(shards));
+            command.add("-c");
+            command.add(classpath);
+            if (jdk != null) {
+                command.add("-j");
+                command.add(jdk);
+            }
+            if (all) command.add("--all");
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = builder.start();
+            in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            reader = new Thread(this, "oops-shard-" + index);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        public void run() {
+            try {
+                BufferedReader out = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8), 1 << 16);
+                String line;
+                while ((line = out.readLine()) != null) {
+                    synchronized (lock) {
+                        receive(this, line);
+                        //batch the routed references of a burst of messages
+                        if (!out.ready()) flushAll();
+                    }
+                }
+                synchronized (lock) {
+                    if (!done) throw new IOException("Shard " + index + " exited before the analysis ended");
+                }
+            } catch (IOException ioe) {
+                fail(ioe);
+            }
+        }
+
+        void send(String name) throws IOException {
+            in.write("CLASS ");
+            in.write(name);
+            in.write('\n');
+            ++sent;
+        }
+
+        void flush() throws IOException {
+            in.flush();
+        }
+
+        void end() throws IOException {
+            in.write("END\n");
+            in.flush();
+        }
+
+        void finish() throws IOException, InterruptedException {
+            reader.join();
+            int status = process.waitFor();
+            synchronized (lock) {
+                if (status != 0 && error == null) error = new IOException("Shard " + index + " exited with status " + status);
+            }
+        }
+    }
+}
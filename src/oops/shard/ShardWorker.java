@@ -0,0 +1,193 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.shard;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import oops.Analyzer;
+import oops.DependencyVisitor;
+import oops.classpath.ClassPath;
+import oops.classpath.PlatformIndex;
+
+/**
+ * A worker process of a sharded analysis, started by a
+ * {@link ShardCoordinator}.  It analyzes the classes whose names hash to
+ * its shard and talks to the coordinator in lines over its standard input
+ * and output:
+ * <ul>
+ *   <li>in: "CLASS name" to analyze a class, "END" to finish.</li>
+ *   <li>out: "OK name" and "FAIL name" for each class analyzed, "REF name"
+ *   for each class another shard owns, and "IDLE n" whenever it runs out
+ *   of work after having been sent n classes.</li>
+ * </ul>
+ * Names are internal class names.  Arguments: the shard index, the shard
+ * count, then "-c" and the class path, optionally "-j" and a Java home to
+ * check against, and "--all" to analyze every class of the class path.
+ */
+public class ShardWorker implements Shard, DependencyVisitor {
+    private static final int BUFFER_SIZE = 1 << 16;
+    
+    private final int index;
+    private final int count;
+    private final Writer out;
+    private final StringBuilder buffer = new StringBuilder();
+    private final ConcurrentLinkedQueue<String> inbox = new ConcurrentLinkedQueue<String>();
+    private final Set<String> forwarded = new HashSet<String>();
+    private volatile boolean ended;
+    private int received;
+    private int reported = -1;
+    
+    ShardWorker(int index, int count, Writer out) {
+        this.index = index;
+        this.count = count;
+        this.out = out;
+    }
+    
+    public static void main(String... args) throws IOException {
+        int index = Integer.parseInt(args[0]);
+        int count = Integer.parseInt(args[1]);
+        String target = System.getProperty("java.class.path");
+        String jdk = null;
+        boolean all = false;
+        for (int i = 2; i < args.length; ++i) {
+            if (args[i].equals("-c") && i + 1 < args.length) {
+                target = args[++i];
+            } else if (args[i].equals("-j") && i + 1 < args.length) {
+                jdk = args[++i];
+            } else if (args[i].equals("--all")) {
+                all = true;
+            }
+        }
+        
+        ClassPath classpath = jdk == null
+            ? ClassPath.parse(target)
+            : ClassPath.of(PlatformIndex.load(new File(jdk)), target.split(File.pathSeparator));
+        ShardWorker worker = new ShardWorker(index, count,
+            new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        Analyzer analyzer = all ? new Analyzer(classpath) : new Analyzer(classpath, new String[0]);
+        analyzer.setShard(worker);
+        analyzer.setDependencyVisitor(worker);
+        worker.listen(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+        analyzer.run();
+        classpath.close();
+        System.exit(0);
+    }
+    
+    /**
+     * Read the coordinator's messages on a thread of their own.
+     */
+    void listen(final BufferedReader in) {
+        Thread listener = new Thread("oops-shard-listener") {
+            public void run() {
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        if (line.startsWith("CLASS ")) {
+                            inbox.add(line.substring(6));
+                        } else if (line.equals("END")) {
+                            break;
+                        }
+                    }
+                } catch (IOException ioe) {
+                    //the coordinator is gone
+                }
+                ended = true;
+            }
+        };
+        listener.setDaemon(true);
+        listener.start();
+    }
+    
+    public boolean owns(String name) {
+        return ShardCoordinator.shardOf(name, count) == index;
+    }
+    
+    public void forward(String name) {
+        if (forwarded.add(name)) write("REF ", name);
+    }
+    
+    public List<String> idle() {
+        //classes sent before the analysis went idle are counted only once
+        //they are handed over, so a reported count is always fully analyzed
+        List<String> more = new ArrayList<String>();
+        String name;
+        while ((name = inbox.poll()) != null) {
+            more.add(name);
+        }
+        if (!more.isEmpty()) {
+            received += more.size();
+            return more;
+        }
+        if (reported != received) {
+            reported = received;
+            write("IDLE ", String.valueOf(received));
+            flush();
+        }
+        //everything sent before END has been taken from the inbox above
+        return ended && inbox.isEmpty() ? null : Collections.<String>emptyList();
+    }
+    
+    public void success(String name) {
+        write("OK ", name.replace('.', '/'));
+    }
+    
+    public void fail(String name) {
+        write("FAIL ", name.replace('.', '/'));
+    }
+    
+    public void end() {
+        flush();
+    }
+    
+    /**
+     * Buffer a message.  Only whole lines are ever written, since the
+     * coordinator takes a partly received line as more to come and holds
+     * back its own output until it has read it.
+     */
+    private synchronized void write(String command, String name) {
+        buffer.append(command).append(name).append('\n');
+        if (buffer.length() >= BUFFER_SIZE) flush();
+    }
+    
+    private synchronized void flush() {
+        try {
+            out.write(buffer.toString());
+            out.flush();
+        } catch (IOException ioe) {
+            ended = true;
+        }
+        buffer.setLength(0);
+    }
+}
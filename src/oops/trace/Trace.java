@@ -0,0 +1,183 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.trace;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Switches tracing of class parsing on and off while the program runs.
+ * Tracing is enabled per visitor category and may be limited to classes
+ * whose internal names start with one of a set of prefixes.  Traced events
+ * go into a ring buffer per thread, see {@link TraceBuffer}, and are only
+ * formatted when the buffers are dumped.
+ * <p>
+ * Tracing can also be enabled at startup with the system properties
+ * "oops.trace", a comma separated list of categories (class, method,
+ * field, annotation or all), and "oops.trace.prefix", a comma separated
+ * list of class name prefixes in either dotted or internal form.
+ */
+public final class Trace {
+    public static final int CLASS = 1;
+    public static final int METHOD = 2;
+    public static final int FIELD = 4;
+    public static final int ANNOTATION = 8;
+    public static final int ALL = CLASS | METHOD | FIELD | ANNOTATION;
+
+    /** The number of thread buffers kept for dumping. */
+    private static final int MAX_BUFFERS = 256;
+
+    private static volatile int categories;
+    private static volatile String[] prefixes = new String[0];
+    private static volatile int capacity = 4096;
+    private static final List<TraceBuffer> buffers = new ArrayList<TraceBuffer>();
+
+    static {
+        String property = System.getProperty("oops.trace");
+        if (property != null) {
+            String prefix = System.getProperty("oops.trace.prefix");
+            enable(parseCategories(property), prefix == null ? new String[0] : prefix.split(","));
+        }
+    }
+
+    private Trace() {
+    }
+
+    /**
+     * Turn tracing on.
+     * @param categories the categories to trace, a combination of
+     * {@link #CLASS}, {@link #METHOD}, {@link #FIELD} and
+     * {@link #ANNOTATION}
+     * @param prefixes trace only classes whose names start with one of
+     * these, or every class if there are none
+     */
+    public static void enable(int categories, String... prefixes) {
+        String[] internal = new String[prefixes.length];
+        for (int i = 0; i < prefixes.length; ++i) {
+            internal[i] = prefixes[i].trim().replace('.', '/');
+        }
+        Trace.prefixes = internal;
+        Trace.categories = categories;
+    }
+
+    /**
+     * Turn tracing off.  Events already traced are kept until cleared.
+     */
+    public static void disable() {
+        categories = 0;
+    }
+
+    /**
+     * @return the categories being traced, zero when tracing is off
+     */
+    public static int getCategories() {
+        return categories;
+    }
+
+    /**
+     * Set the number of events each thread keeps.  Applies to buffers
+     * created from now on.
+     * @param events the number of events
+     */
+    public static void setCapacity(int events) {
+        if (events < 1) throw new IllegalArgumentException("Capacity must be positive: " + events);
+        capacity = events;
+    }
+
+    /**
+     * Decide what to trace of one class.  Called once per class, so that
+     * each event only needs to test the returned mask.
+     * @param name the internal name of the class
+     * @return the categories to trace for the class
+     */
+    public static int categoriesFor(String name) {
+        int enabled = categories;
+        if (enabled == 0) return 0;
+        String[] filter = prefixes;
+        if (filter.length == 0) return enabled;
+        for (String prefix : filter) {
+            if (name.startsWith(prefix)) return enabled;
+        }
+        return 0;
+    }
+
+    /**
+     * Parse a comma separated list of category names.
+     * @param names the names, such as "class,method"
+     * @return the categories
+     */
+    public static int parseCategories(String names) {
+        int result = 0;
+        for (String name : names.split(",")) {
+            name = name.trim().toLowerCase(Locale.ENGLISH);
+            if (name.equals("class")) result |= CLASS;
+            else if (name.equals("method")) result |= METHOD;
+            else if (name.equals("field")) result |= FIELD;
+            else if (name.equals("annotation")) result |= ANNOTATION;
+            else if (name.equals("all")) result |= ALL;
+            else if (name.length() > 0) throw new IllegalArgumentException("Unknown trace category " + name);
+        }
+        return result;
+    }
+
+    /**
+     * Create a buffer for the calling thread and keep it for dumping.  The
+     * oldest buffers are let go once there are too many.
+     * @return the buffer
+     */
+    public static TraceBuffer newBuffer() {
+        TraceBuffer buffer = new TraceBuffer(Thread.currentThread().getName(), capacity);
+        synchronized (buffers) {
+            if (buffers.size() == MAX_BUFFERS) buffers.remove(0);
+            buffers.add(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Write out the events of every buffer, oldest first within each.
+     * Events traced while dumping may be missed or cut short.
+     * @param out where to write
+     * @throws IOException if writing fails
+     */
+    public static void dump(Appendable out) throws IOException {
+        List<TraceBuffer> snapshot;
+        synchronized (buffers) {
+            snapshot = new ArrayList<TraceBuffer>(buffers);
+        }
+        for (TraceBuffer buffer : snapshot) {
+            buffer.dump(out);
+        }
+    }
+
+    /**
+     * Drop every traced event.
+     */
+    public static void clear() {
+        synchronized (buffers) {
+            buffers.clear();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.trace;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.objectweb.asm.Label;
+
+/**
+ * A ring buffer of traced events, written by a single thread.  Event
+ * arguments are kept as numbers in a primitive array, or as strings; labels
+ * are kept as their identity and other values, such as the arrays ASM
+ * reuses from one call to the next, are copied into a string when
+ * recorded.  Nothing of the parser is held on to, and numbers are only
+ * turned into text when the buffer is dumped.  Once full, each event
+ * replaces the oldest.
+ */
+public final class TraceBuffer {
+    private static final int ARGS = 3;
+    private static final byte NONE = 0;
+    private static final byte STRING = 1;
+    private static final byte INT = 2;
+    private static final byte BOOLEAN = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte LABEL = 5;
+
+    private final String thread;
+    private final int capacity;
+    private final String[] classes;
+    private final String[] names;
+    private final byte[] kinds;
+    private final long[] values;
+    private final String[] strings;
+    private long count;
+
+    TraceBuffer(String thread, int capacity) {
+        this.thread = thread;
+        this.capacity = capacity;
+        this.classes = new String[capacity];
+        this.names = new String[capacity];
+        this.kinds = new byte[capacity * ARGS];
+        this.values = new long[capacity * ARGS];
+        this.strings = new String[capacity * ARGS];
+    }
+
+    /**
+     * Record an event.
+     * @param clazz the internal name of the class being parsed
+     * @param event the name of the event
+     * @param a the first argument, or null
+     * @param b the second argument, or null
+     * @param c the third argument, or null
+     */
+    public void record(String clazz, String event, Object a, Object b, Object c) {
+        int slot = (int) (count % capacity);
+        classes[slot] = clazz;
+        names[slot] = event;
+        store(slot * ARGS, a);
+        store(slot * ARGS + 1, b);
+        store(slot * ARGS + 2, c);
+        ++count;
+    }
+
+    /**
+     * @return the number of events recorded, including those overwritten
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Write out the events still held, oldest first, one per line.
+     * @param out where to write
+     * @throws IOException if writing fails
+     */
+    public void dump(Appendable out) throws IOException {
+        long end = count;
+        long start = Math.max(0, end - capacity);
+        if (start > 0) out.append(thread).append(": ").append(String.valueOf(start)).append(" older events dropped\n");
+        for (long i = start; i < end; ++i) {
+            int slot = (int) (i % capacity);
+            out.append(thread).append(' ').append(classes[slot]).append(' ').append(names[slot]);
+            for (int arg = slot * ARGS; arg < (slot + 1) * ARGS; ++arg) {
+                switch (kinds[arg]) {
+                case STRING:
+                    out.append(' ').append(strings[arg]);
+                    break;
+                case INT:
+                    out.append(' ').append(String.valueOf(values[arg]));
+                    break;
+                case BOOLEAN:
+                    out.append(' ').append(String.valueOf(values[arg] != 0));
+                    break;
+                case DOUBLE:
+                    out.append(' ').append(String.valueOf(Double.longBitsToDouble(values[arg])));
+                    break;
+                case LABEL:
+                    //the same form as Label.toString()
+                    out.append(" L").append(String.valueOf(values[arg]));
+                    break;
+                default:
+                    break;
+                }
+            }
+            out.append('\n');
+        }
+    }
+
+    private void store(int arg, Object value) {
+        strings[arg] = null;
+        if (value == null) {
+            kinds[arg] = NONE;
+        } else if (value instanceof String) {
+            kinds[arg] = STRING;
+            strings[arg] = (String) value;
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            kinds[arg] = INT;
+            values[arg] = ((Number) value).longValue();
+        } else if (value instanceof Boolean) {
+            kinds[arg] = BOOLEAN;
+            values[arg] = ((Boolean) value).booleanValue() ? 1 : 0;
+        } else if (value instanceof Float || value instanceof Double) {
+            kinds[arg] = DOUBLE;
+            values[arg] = Double.doubleToLongBits(((Number) value).doubleValue());
+        } else if (value instanceof Label) {
+            kinds[arg] = LABEL;
+            values[arg] = System.identityHashCode(value);
+        } else {
+            kinds[arg] = STRING;
+            strings[arg] = format(value);
+        }
+    }
+
+    private static String format(Object value) {
+        if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            StringBuilder text = new StringBuilder("[");
+            for (int i = 0; i < array.length; ++i) {
+                if (i > 0) text.append(", ");
+                //frames hold labels for uninitialized values
+                Object element = array[i];
+                text.append(element instanceof Label ? "L" + System.identityHashCode(element) : String.valueOf(element));
+            }
+            return text.append(']').toString();
+        }
+        if (value instanceof int[]) return Arrays.toString((int[]) value);
+        return value.toString();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The Class Index assigns dense integer ids to class names, so that per
+ * class bookkeeping can live in primitive tables instead of maps keyed by
+ * String.  Names are held in open-addressing tables split into independently
+ * locked segments; ids are handed out in order starting from zero.  Lookups
+ * of names already interned take no lock.
+ */
+public class ClassIndex {
+    private static final int SEGMENT_BITS = 6;
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+    private final AtomicReferenceArray<AtomicReferenceArray<String>> names =
+        new AtomicReferenceArray<AtomicReferenceArray<String>>(1 << 19);
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    public ClassIndex() {
+        for (int i = 0; i < segments.length; ++i) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Return the id for a class name, assigning a new one if the name has
+     * not been seen before.
+     * @param name the class name
+     * @return the id of the name
+     */
+    public int intern(String name) {
+        int hash = spread(name.hashCode());
+        return segments[hash >>> (32 - SEGMENT_BITS)].intern(name, hash);
+    }
+
+    /**
+     * Return the id for a class name without assigning one.
+     * @param name the class name
+     * @return the id of the name, or -1 if it has never been interned
+     */
+    public int get(String name) {
+        int hash = spread(name.hashCode());
+        return segments[hash >>> (32 - SEGMENT_BITS)].get(name, hash);
+    }
+
+    /**
+     * Return the class name for an id handed out by {@link #intern(String)}.
+     * @param id the class id
+     * @return the class name, or null if the id is unknown
+     */
+    public String name(int id) {
+        if (id < 0 || id >= nextId.get()) return null;
+        AtomicReferenceArray<String> chunk = names.get(id >>> CHUNK_BITS);
+        return chunk == null ? null : chunk.get(id & CHUNK_MASK);
+    }
+
+    /**
+     * @return the number of names interned so far
+     */
+    public int size() {
+        return nextId.get();
+    }
+
+    private int assign(String name) {
+        int id = nextId.getAndIncrement();
+        int c = id >>> CHUNK_BITS;
+        AtomicReferenceArray<String> chunk = names.get(c);
+        if (chunk == null) {
+            names.compareAndSet(c, null, new AtomicReferenceArray<String>(1 << CHUNK_BITS));
+            chunk = names.get(c);
+        }
+        chunk.set(id & CHUNK_MASK, name);
+        return id;
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16) ^ (h << 7);
+    }
+
+    /**
+     * A linear probing table of names to ids.  A slot is free when its key
+     * is null; the table is doubled once it becomes half full.  Writers hold
+     * the segment lock.  Readers take none: an id is stored before its key,
+     * and a doubled table is filled before it is published, so a reader
+     * that finds a key also sees its id.
+     */
+    private class Segment {
+        private volatile Table table = new Table(16);
+        private int count;
+
+        int get(String name, int hash) {
+            Table t = table;
+            int mask = t.ids.length - 1;
+            String key;
+            for (int i = hash & mask; (key = t.keys.get(i)) != null; i = (i + 1) & mask) {
+                if (key.equals(name)) return t.ids[i];
+            }
+            return -1;
+        }
+
+        synchronized int intern(String name, int hash) {
+            Table t = table;
+            int mask = t.ids.length - 1;
+            int i = hash & mask;
+            String key;
+            for (; (key = t.keys.get(i)) != null; i = (i + 1) & mask) {
+                if (key.equals(name)) return t.ids[i];
+            }
+            int id = assign(name);
+            t.ids[i] = id;
+            t.keys.set(i, name);
+            if (++count * 2 > t.ids.length) grow();
+            return id;
+        }
+
+        private void grow() {
+            Table old = table;
+            Table t = new Table(old.ids.length * 2);
+            int mask = t.ids.length - 1;
+            for (int j = 0; j < old.ids.length; ++j) {
+                String key = old.keys.get(j);
+                if (key == null) continue;
+                int i = spread(key.hashCode()) & mask;
+                while (t.keys.get(i) != null) i = (i + 1) & mask;
+                t.ids[i] = old.ids[j];
+                t.keys.set(i, key);
+            }
+            table = t;
+        }
+    }
+
+    /**
+     * The slots of a segment.  The table a reader holds is never written
+     * again once a doubled one replaces it.
+     */
+    private static class Table {
+        final AtomicReferenceArray<String> keys;
+        final int[] ids;
+
+        Table(int size) {
+            keys = new AtomicReferenceArray<String>(size);
+            ids = new int[size];
+        }
+    }
+}
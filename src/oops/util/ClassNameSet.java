@@ -0,0 +1,376 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable, sorted set of class names stored with front coding.  Names
+ * are kept in blocks of sixteen; the first name of a block is stored whole
+ * and every other name stores only the length of the prefix it shares with
+ * its predecessor plus the remaining suffix.  Class names within a package
+ * share most of their bytes, so a set typically takes a few bytes per name.
+ * <p>
+ * Lookups binary search the block heads and then scan a single block.
+ * Names are ordered by their UTF-8 bytes, which is the same as String order
+ * for the ASCII names found in practice.
+ */
+public class ClassNameSet extends AbstractSet<String> {
+    private static final int BLOCK = 16;
+
+    /** The empty set. */
+    public static final ClassNameSet EMPTY = new ClassNameSet(new byte[0][]);
+
+    private final byte[] data;
+    private final int[] blocks;
+    private final int size;
+
+    /**
+     * Construct a set holding the given names.
+     * @param names the class names, in any order, duplicates allowed
+     */
+    public ClassNameSet(Collection<String> names) {
+        this(sortedUnique(encode(names)));
+    }
+
+    private ClassNameSet(byte[][] sorted) {
+        Encoder encoder = new Encoder(sorted.length);
+        for (byte[] name : sorted) encoder.add(name);
+        this.data = encoder.data.toByteArray();
+        this.blocks = encoder.blocks;
+        this.size = sorted.length;
+    }
+
+    private ClassNameSet(byte[] data, int[] blocks, int size) {
+        this.data = data;
+        this.blocks = blocks;
+        this.size = size;
+    }
+
+    private ClassNameSet(Encoder encoder) {
+        this.data = encoder.data.toByteArray();
+        this.blocks = Arrays.copyOf(encoder.blocks, (encoder.count + BLOCK - 1) / BLOCK);
+        this.size = encoder.count;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof String)) return false;
+        byte[] key = utf8((String) o);
+        int block = findBlock(key);
+        if (block < 0) return false;
+        Cursor cursor = new Cursor(block);
+        while (cursor.next()) {
+            int c = compare(cursor.buffer, cursor.length, key, key.length);
+            if (c == 0) return true;
+            if (c > 0) return false;
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new NameIterator(new Cursor(0), null);
+    }
+
+    /**
+     * Iterate, in order, over the names starting with a prefix, for example
+     * a package name followed by a dot.
+     * @param prefix the prefix to match
+     * @return the matching names
+     */
+    public Iterable<String> withPrefix(String prefix) {
+        final byte[] key = utf8(prefix);
+        final int block = Math.max(findBlock(key), 0);
+        return new Iterable<String>() {
+            public Iterator<String> iterator() {
+                return new NameIterator(new Cursor(block), key);
+            }
+        };
+    }
+
+    /**
+     * Compute the names in this set that are not in another.  Both sets are
+     * walked once, in order.
+     * @param other the names to remove
+     * @return a new set
+     */
+    public ClassNameSet difference(ClassNameSet other) {
+        Encoder encoder = new Encoder(size);
+        Cursor mine = new Cursor(0);
+        Cursor theirs = other.new Cursor(0);
+        boolean more = theirs.next();
+        while (mine.next()) {
+            int c = 1;
+            while (more && (c = compare(mine.buffer, mine.length, theirs.buffer, theirs.length)) > 0) {
+                more = theirs.next();
+            }
+            if (!more || c < 0) encoder.add(Arrays.copyOf(mine.buffer, mine.length));
+        }
+        return new ClassNameSet(encoder);
+    }
+
+    /**
+     * Write the set in its encoded form.
+     * @param out the output to write to
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(blocks.length);
+        for (int block : blocks) out.writeInt(block);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /**
+     * Read a set written by {@link #writeTo(DataOutput)}.
+     * @param in the input to read from
+     * @return the set
+     */
+    public static ClassNameSet readFrom(DataInput in) throws IOException {
+        int size = in.readInt();
+        int[] blocks = new int[in.readInt()];
+        if (blocks.length != (size + BLOCK - 1) / BLOCK) throw new IOException("Corrupt class name set");
+        for (int i = 0; i < blocks.length; ++i) blocks[i] = in.readInt();
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new ClassNameSet(data, blocks, size);
+    }
+
+    /**
+     * @return the number of bytes used to hold the names
+     */
+    public int encodedSize() {
+        return data.length + blocks.length * 4;
+    }
+
+    /**
+     * Find the last block whose head is not greater than the key.
+     * @return the block, or -1 if the key sorts before every name
+     */
+    private int findBlock(byte[] key) {
+        int lo = 0, hi = blocks.length - 1, found = -1;
+        Cursor cursor = new Cursor(0);
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            cursor.reset(mid);
+            cursor.next();
+            if (compare(cursor.buffer, cursor.length, key, key.length) <= 0) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private static byte[][] encode(Collection<String> names) {
+        byte[][] encoded = new byte[names.size()][];
+        int i = 0;
+        for (String name : names) encoded[i++] = utf8(name);
+        return encoded;
+    }
+
+    private static byte[][] sortedUnique(byte[][] names) {
+        Arrays.sort(names, new Comparator<byte[]>() {
+            public int compare(byte[] a, byte[] b) {
+                return ClassNameSet.compare(a, a.length, b, b.length);
+            }
+        });
+        int unique = 0;
+        for (int i = 0; i < names.length; ++i) {
+            if (unique == 0 || compare(names[i], names[i].length, names[unique - 1], names[unique - 1].length) != 0)
+                names[unique++] = names[i];
+        }
+        return unique == names.length ? names : Arrays.copyOf(names, unique);
+    }
+
+    private static int compare(byte[] a, int alen, byte[] b, int blen) {
+        int n = Math.min(alen, blen);
+        for (int i = 0; i < n; ++i) {
+            int c = (a[i] & 0xff) - (b[i] & 0xff);
+            if (c != 0) return c;
+        }
+        return alen - blen;
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    private static String string(byte[] b, int len) {
+        try {
+            return new String(b, 0, len, "UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7f) != 0) {
+            out.write((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    /**
+     * Appends sorted names to the front coded form.
+     */
+    private static class Encoder {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        int[] blocks;
+        int count;
+        byte[] previous;
+
+        Encoder(int capacity) {
+            blocks = new int[(capacity + BLOCK - 1) / BLOCK];
+        }
+
+        void add(byte[] name) {
+            if (count % BLOCK == 0) {
+                if (count / BLOCK == blocks.length)
+                    blocks = Arrays.copyOf(blocks, blocks.length * 2 + 1);
+                blocks[count / BLOCK] = data.size();
+                writeVarInt(data, name.length);
+                data.write(name, 0, name.length);
+            } else {
+                int shared = 0;
+                int max = Math.min(previous.length, name.length);
+                while (shared < max && previous[shared] == name[shared]) ++shared;
+                writeVarInt(data, shared);
+                writeVarInt(data, name.length - shared);
+                data.write(name, shared, name.length - shared);
+            }
+            previous = name;
+            ++count;
+        }
+    }
+
+    /**
+     * Decodes names in order, starting from the head of a block, into a
+     * reusable buffer.
+     */
+    private class Cursor {
+        byte[] buffer = new byte[64];
+        int length;
+        int position;
+        int index;
+
+        Cursor(int block) {
+            reset(block);
+        }
+
+        void reset(int block) {
+            index = block * BLOCK;
+            position = block < blocks.length ? blocks[block] : data.length;
+            length = 0;
+        }
+
+        boolean next() {
+            if (index >= size) return false;
+            int shared = (index % BLOCK == 0) ? 0 : readVarInt();
+            int suffix = readVarInt();
+            if (buffer.length < shared + suffix)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, shared + suffix));
+            System.arraycopy(data, position, buffer, shared, suffix);
+            position += suffix;
+            length = shared + suffix;
+            ++index;
+            return true;
+        }
+
+        private int readVarInt() {
+            int v = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[position++];
+                v |= (b & 0x7f) << shift;
+                if (b >= 0) return v;
+            }
+        }
+    }
+
+    private class NameIterator implements Iterator<String> {
+        private final Cursor cursor;
+        private final byte[] prefix;
+        private String next;
+
+        NameIterator(Cursor cursor, byte[] prefix) {
+            this.cursor = cursor;
+            this.prefix = prefix;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (cursor.next()) {
+                if (prefix == null) {
+                    next = string(cursor.buffer, cursor.length);
+                    return;
+                }
+                int n = Math.min(prefix.length, cursor.length);
+                int c = compare(cursor.buffer, n, prefix, prefix.length);
+                if (c == 0) {
+                    next = string(cursor.buffer, cursor.length);
+                    return;
+                }
+                if (c > 0) return;
+            }
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        public String next() {
+            if (next == null) throw new NoSuchElementException();
+            String result = next;
+            advance();
+            return result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
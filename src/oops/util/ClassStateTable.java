@@ -0,0 +1,106 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The Class State Table tracks the analysis state of every class id handed
+ * out by a {@link ClassIndex}.  Each state takes two bits, packed 32 to a
+ * word in lazily allocated segments, so reading a state is a single memory
+ * read and every transition is a compare-and-set on one word.
+ */
+public class ClassStateTable {
+    /** The class has not been looked at yet. */
+    public static final int UNSEEN  = 0;
+    /** The class has been claimed by a worker and is being parsed. */
+    public static final int CLAIMED = 1;
+    /** The class was found and parsed. */
+    public static final int PARSED  = 2;
+    /** The class could not be found or read. */
+    public static final int FAILED  = 3;
+
+    private static final int WORD_BITS = 5;
+    private static final int SEGMENT_BITS = 14;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+    private final AtomicReferenceArray<AtomicLongArray> segments =
+        new AtomicReferenceArray<AtomicLongArray>(1 << 12);
+
+    /**
+     * Return the state of a class.
+     * @param id the class id
+     * @return one of UNSEEN, CLAIMED, PARSED or FAILED
+     */
+    public int get(int id) {
+        int word = id >>> WORD_BITS;
+        AtomicLongArray segment = segments.get(word >>> SEGMENT_BITS);
+        if (segment == null) return UNSEEN;
+        return (int) (segment.get(word & SEGMENT_MASK) >>> shift(id)) & 3;
+    }
+
+    /**
+     * Atomically move a class from one state to another.
+     * @param id the class id
+     * @param expect the state the class must currently be in
+     * @param update the new state
+     * @return true if the transition happened
+     */
+    public boolean compareAndSet(int id, int expect, int update) {
+        int word = id >>> WORD_BITS;
+        AtomicLongArray segment = segment(word >>> SEGMENT_BITS);
+        int index = word & SEGMENT_MASK;
+        int shift = shift(id);
+        long mask = 3L << shift;
+        while (true) {
+            long bits = segment.get(index);
+            if (((bits & mask) >>> shift) != expect) return false;
+            long next = (bits & ~mask) | ((long) update << shift);
+            if (segment.compareAndSet(index, bits, next)) return true;
+        }
+    }
+
+    /**
+     * Claim an unseen class for processing.  Exactly one caller will ever
+     * succeed for a given id.
+     * @param id the class id
+     * @return true if this caller now owns the class
+     */
+    public boolean claim(int id) {
+        return compareAndSet(id, UNSEEN, CLAIMED);
+    }
+
+    private AtomicLongArray segment(int s) {
+        AtomicLongArray segment = segments.get(s);
+        if (segment == null) {
+            segments.compareAndSet(s, null, new AtomicLongArray(1 << SEGMENT_BITS));
+            segment = segments.get(s);
+        }
+        return segment;
+    }
+
+    private static int shift(int id) {
+        return (id & ((1 << WORD_BITS) - 1)) << 1;
+    }
+}
@@ -25,36 +25,50 @@ package oops.util;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import oops.DependencyVisitor;
 
 /**
  * The Concurrent Dependency Visitor is an implementation of the
  * DependencyVisitor that uses Java concurrency utilities to retrieve the list
- * of failures or successes.
+ * of failures or successes.  Names are collected while the analysis runs and
+ * compacted into a {@link ClassNameSet} once it ends.
  */
 public class ConcurrentDependencyVisitor implements DependencyVisitor {
     private CountDownLatch endGate = new CountDownLatch(1);
+    private final Object failureLock = new Object();
+    private final Object successLock = new Object();
     private Set<String> failures = new HashSet<String>();
     private Set<String> successes = new HashSet<String>();
+    private volatile ClassNameSet failureSet;
+    private volatile ClassNameSet successSet;
        
     public void end() {
+        synchronized(failureLock) {
+            if (failureSet == null) failureSet = new ClassNameSet(failures);
+            failures = null;
+        }
+        synchronized(successLock) {
+            if (successSet == null) successSet = new ClassNameSet(successes);
+            successes = null;
+        }
         endGate.countDown();
     }
 
     public void fail(String name) {
         if (endGate.getCount() == 0) return;
         
-        synchronized(failures) {
-            failures.add(name);
+        synchronized(failureLock) {
+            if (failures != null) failures.add(name);
         }
     }
 
     public void success(String name) {
         if (endGate.getCount() == 0) return;
         
-        synchronized(successes) {
-            successes.add(name);
+        synchronized(successLock) {
+            if (successes != null) successes.add(name);
         }
     }
     
@@ -66,8 +80,7 @@ public class ConcurrentDependencyVisitor implements DependencyVisitor {
      * @throws InterruptedException
      */
     public Set<String> getFailures() throws InterruptedException {
-        endGate.await();
-        return new HashSet<String>(failures);
+        return new HashSet<String>(getFailureSet());
     }
 
     /**
@@ -77,7 +90,46 @@ public class ConcurrentDependencyVisitor implements DependencyVisitor {
      * @throws InterruptedException
      */
     public Set<String> getSuccesses()  throws InterruptedException {
+        return new HashSet<String>(getSuccessSet());
+    }
+    
+    /**
+     * @return true once the analysis has ended
+     */
+    public boolean isEnded() {
+        return endGate.getCount() == 0;
+    }
+    
+    /**
+     * Wait for the end of analysis.
+     * @param timeout the longest time to wait
+     * @param unit the unit of timeout
+     * @return true if the analysis ended, false if the time ran out first
+     * @throws InterruptedException
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return endGate.await(timeout, unit);
+    }
+    
+    /**
+     * Return the compact, immutable set of classes that could not be found
+     * and loaded.  This method will block for the completion of analysis.
+     * @return the failed class names
+     * @throws InterruptedException
+     */
+    public ClassNameSet getFailureSet() throws InterruptedException {
+        endGate.await();
+        return failureSet;
+    }
+    
+    /**
+     * Return the compact, immutable set of classes that could be found and
+     * loaded.  This method will block for the completion of analysis.
+     * @return the successful class names
+     * @throws InterruptedException
+     */
+    public ClassNameSet getSuccessSet() throws InterruptedException {
         endGate.await();
-        return new HashSet<String>(successes);
+        return successSet;
     }
 }
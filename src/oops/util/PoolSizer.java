@@ -0,0 +1,119 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sizes a thread pool from the measured share of time its tasks spend
+ * waiting on I/O.  Each task reports how long it waited and how long it
+ * computed; with a wait to compute ratio of w, about cores * (1 + w)
+ * threads keep every processor busy.  Parsing classes from a warm page
+ * cache calls for one thread per processor, while reading them over a
+ * network file system calls for many more.
+ * <p>
+ * Tasks record concurrently; {@link #resize(int)} is called from a single
+ * thread.
+ */
+public class PoolSizer {
+    /** The fewest tasks a measurement is based on. */
+    private static final long MIN_SAMPLES = 32;
+
+    private final int cores;
+    private volatile int min;
+    private volatile int max;
+    private final AtomicLong waiting = new AtomicLong();
+    private final AtomicLong computing = new AtomicLong();
+    private final AtomicLong samples = new AtomicLong();
+    private long lastWaiting;
+    private long lastComputing;
+    private long lastSamples;
+
+    /**
+     * @param cores the number of processors
+     * @param min the fewest threads to use
+     * @param max the most threads to use
+     */
+    public PoolSizer(int cores, int min, int max) {
+        this.cores = cores;
+        setBounds(min, max);
+    }
+
+    /**
+     * @param min the fewest threads to use, at least one
+     * @param max the most threads to use, at least min
+     */
+    public void setBounds(int min, int max) {
+        if (min < 1 || max < min) throw new IllegalArgumentException("Bad pool bounds " + min + ".." + max);
+        this.min = min;
+        this.max = max;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * Record the times of one task.
+     * @param waitNanos the time spent waiting on I/O
+     * @param computeNanos the time spent computing
+     */
+    public void record(long waitNanos, long computeNanos) {
+        waiting.addAndGet(waitNanos);
+        computing.addAndGet(computeNanos);
+        samples.incrementAndGet();
+    }
+
+    /**
+     * Choose a pool size from the tasks recorded since the last call.
+     * The size moves half way towards the ideal each time, so that a few
+     * slow reads do not make it swing.
+     * @param current the current pool size
+     * @return the new pool size, within the bounds
+     */
+    public int resize(int current) {
+        int low = min;
+        int high = max;
+        long n = samples.get();
+        long wait = waiting.get();
+        long compute = computing.get();
+        if (n - lastSamples < MIN_SAMPLES || compute == lastComputing) return clamp(current, low, high);
+        double ratio = (double) (wait - lastWaiting) / (compute - lastComputing);
+        lastSamples = n;
+        lastWaiting = wait;
+        lastComputing = compute;
+
+        int ideal = clamp((int) Math.min(high, Math.round(cores * (1 + ratio))), low, high);
+        int step = (ideal - current) / 2;
+        if (step == 0) step = Integer.signum(ideal - current);
+        return clamp(current + step, low, high);
+    }
+
+    private static int clamp(int size, int low, int high) {
+        return Math.max(low, Math.min(high, size));
+    }
+}
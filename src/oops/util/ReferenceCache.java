@@ -0,0 +1,232 @@
+/*
+Copyright (c) 2007 Greg Vanore
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in
+all copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+THE SOFTWARE.
+*/
+
+package oops.util;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import oops.ReferenceExtractor;
+
+/**
+ * A cache of the references of parsed classes, kept across analyses.  A
+ * class is identified by its name and the length and CRC-32 of its bytes,
+ * so a changed class file is parsed again while the same bytes found in
+ * another jar are not.  The least recently used classes are evicted once
+ * the estimated size of the cache exceeds its budget.
+ * <p>
+ * A class missing from the cache is parsed by the first thread to ask for
+ * it; other threads asking for it meanwhile wait for that result instead of
+ * parsing it again.
+ */
+public class ReferenceCache {
+    //rough sizes of the objects held per entry, in bytes
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int STRING_OVERHEAD = 48;
+
+    private final long budget;
+    private final Map<Key, String[]> entries = new LinkedHashMap<Key, String[]>(256, 0.75f, true);
+    private final ConcurrentMap<Key, FutureTask<String[]>> loading = new ConcurrentHashMap<Key, FutureTask<String[]>>();
+    private long size;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param budget the estimated number of bytes the cache may hold
+     */
+    public ReferenceCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Return the references of a class, parsing it only if it is not
+     * cached.
+     * @param name the internal class name
+     * @param b the class file bytes
+     * @param off the start of the class file
+     * @param len the length of the class file
+     * @param extractor the calling thread's reference extractor
+     * @return the internal names of the referenced classes; the list must
+     * not be modified
+     */
+    public List<String> get(String name, final byte[] b, final int off, final int len,
+            final ReferenceExtractor extractor) {
+        CRC32 crc = new CRC32();
+        crc.update(b, off, len);
+        Key key = new Key(name, len, crc.getValue());
+        String[] references;
+        synchronized (this) {
+            references = entries.get(key);
+        }
+        if (references != null) {
+            hits.incrementAndGet();
+            return Arrays.asList(references);
+        }
+
+        FutureTask<String[]> task = new FutureTask<String[]>(new Callable<String[]>() {
+            public String[] call() {
+                List<String> found = extractor.extract(b, off, len);
+                return found.toArray(new String[found.size()]);
+            }
+        });
+        FutureTask<String[]> existing = loading.putIfAbsent(key, task);
+        if (existing == null) {
+            misses.incrementAndGet();
+            task.run();
+            try {
+                references = result(task);
+                put(key, references);
+            } finally {
+                loading.remove(key, task);
+            }
+        } else {
+            //another thread is parsing the same bytes right now
+            hits.incrementAndGet();
+            references = result(existing);
+        }
+        return Arrays.asList(references);
+    }
+
+    private static String[] result(FutureTask<String[]> task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void put(Key key, String[] references) {
+        long weight = weigh(key, references);
+        if (weight > budget) return;
+        String[] previous = entries.put(key, references);
+        if (previous != null) size -= weigh(key, previous);
+        size += weight;
+        Iterator<Map.Entry<Key, String[]>> eldest = entries.entrySet().iterator();
+        while (size > budget && eldest.hasNext()) {
+            Map.Entry<Key, String[]> entry = eldest.next();
+            size -= weigh(entry.getKey(), entry.getValue());
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long weigh(Key key, String[] references) {
+        long weight = ENTRY_OVERHEAD + STRING_OVERHEAD + key.name.length() + 8L * references.length;
+        for (String reference : references) {
+            weight += STRING_OVERHEAD + reference.length();
+        }
+        return weight;
+    }
+
+    /**
+     * Drop every cached class.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * @return the number of classes cached
+     */
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * @return the estimated number of bytes cached
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of lookups answered without parsing
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups that parsed a class
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of classes evicted to stay within the budget
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * The identity of a class file.
+     */
+    private static final class Key {
+        final String name;
+        final int length;
+        final long crc;
+
+        Key(String name, int length, long crc) {
+            this.name = name;
+            this.length = length;
+            this.crc = crc;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return length == other.length && crc == other.crc && name.equals(other.name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + (int) crc;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package oops;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.classpath.ClassPath;
+
+/**
+ * Test publishing analysis events under subscriber demand.
+ */
+public class AnalysisPublisherTest {
+    private static ClassPath classpath() {
+        return ClassPath.of(System.getProperty("java.class.path").split(File.pathSeparator));
+    }
+    
+    @Test
+    public void testPublish() throws Exception {
+        ClassPath classpath = classpath();
+        Analyzer analyzer = new Analyzer(classpath, "oops.Permutations", "a.Missing");
+        Collector collector = new Collector(1);
+        analyzer.publish(2, true).subscribe(collector);
+        Assert.assertTrue(collector.done.await(60, TimeUnit.SECONDS));
+        Assert.assertTrue(collector.completed);
+        Assert.assertTrue(collector.events.contains("SUCCESS oops.Permutations"));
+        Assert.assertTrue(collector.events.contains("FAILURE a.Missing"));
+        Assert.assertTrue(collector.events.contains("REFERENCE oops.Permutations -> oops.FieldTypeReference"));
+        classpath.close();
+    }
+    
+    @Test
+    public void testCancel() throws Exception {
+        ClassPath classpath = classpath();
+        Analyzer analyzer = new Analyzer(classpath);
+        Collector collector = new Collector(0);
+        analyzer.publish(4, false).subscribe(collector);
+        collector.subscription.request(3);
+        Assert.assertTrue(collector.received.tryAcquire(3, 60, TimeUnit.SECONDS));
+        //the analysis waits for demand instead of running ahead
+        Assert.assertFalse(collector.received.tryAcquire(200, TimeUnit.MILLISECONDS));
+        Assert.assertFalse(analyzer.isCancelled());
+        collector.subscription.cancel();
+        Assert.assertFalse(collector.completed);
+        Assert.assertTrue(analyzer.isCancelled());
+        classpath.close();
+    }
+    
+    @Test
+    public void testFailFast() throws Exception {
+        ClassPath classpath = classpath();
+        Analyzer analyzer = new Analyzer(classpath, "a.Missing1", "a.Missing2", "a.Missing3");
+        analyzer.setFailFast(1);
+        Collector collector = new Collector(1);
+        analyzer.publish(2, false).subscribe(collector);
+        Assert.assertTrue(collector.done.await(60, TimeUnit.SECONDS));
+        //a truncated stream does not complete normally
+        Assert.assertTrue(collector.error instanceof CancellationException);
+        Assert.assertFalse(collector.completed);
+        Assert.assertEquals(1, collector.events.size());
+        classpath.close();
+    }
+    
+    @Test
+    public void testBadRequest() throws Exception {
+        ClassPath classpath = classpath();
+        Analyzer analyzer = new Analyzer(classpath);
+        Collector collector = new Collector(0);
+        analyzer.publish(4, false).subscribe(collector);
+        collector.subscription.request(5);
+        collector.subscription.request(0);
+        Assert.assertTrue(collector.done.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(collector.error instanceof IllegalArgumentException);
+        Assert.assertFalse(collector.completed);
+        Assert.assertTrue(analyzer.isCancelled());
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("oops-publisher")) thread.join(5000);
+            Assert.assertFalse(thread.getName().equals("oops-publisher") && thread.isAlive());
+        }
+        classpath.close();
+    }
+    
+    static class Collector implements Flow.Subscriber<AnalysisEvent> {
+        final List<String> events = new ArrayList<String>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final Semaphore received = new Semaphore(0);
+        final int batch;
+        volatile Flow.Subscription subscription;
+        volatile boolean completed;
+        volatile Throwable error;
+        
+        Collector(int batch) {
+            this.batch = batch;
+        }
+        
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (batch > 0) subscription.request(batch);
+        }
+        
+        public synchronized void onNext(AnalysisEvent event) {
+            events.add(event.toString());
+            received.release();
+            if (batch > 0) subscription.request(batch);
+        }
+        
+        public void onError(Throwable throwable) {
+            error = throwable;
+            done.countDown();
+        }
+        
+        public void onComplete() {
+            completed = true;
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package oops;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.classpath.ClassPath;
+
+/**
+ * Test the background analysis handle: completion, cancellation and
+ * timeouts and fail-fast, each ending with its results and a stopped pool.
+ */
+public class AnalysisTest {
+    private static ClassPath classpath() {
+        return ClassPath.of(System.getProperty("java.class.path").split(File.pathSeparator));
+    }
+    
+    @Test
+    public void testComplete() throws Exception {
+        ClassPath classpath = classpath();
+        Analysis analysis = new Analyzer(classpath, "oops.Permutations").start();
+        Assert.assertTrue(analysis.await(60, TimeUnit.SECONDS));
+        Assert.assertTrue(analysis.isDone());
+        Assert.assertTrue(analysis.isComplete());
+        Assert.assertTrue(analysis.getSuccesses().contains("oops.FieldTypeReference"));
+        Assert.assertTrue(analysis.getFailures().isEmpty());
+        classpath.close();
+    }
+    
+    @Test
+    public void testCancel() throws Exception {
+        ClassPath classpath = classpath();
+        Analyzer analyzer = new Analyzer(classpath);
+        Analysis analysis = analyzer.start();
+        analysis.cancel();
+        Assert.assertTrue(analysis.await(10, TimeUnit.SECONDS));
+        Assert.assertFalse(analysis.isComplete());
+        Assert.assertTrue(analyzer.isCancelled());
+        Assert.assertNotNull(analysis.getSuccesses());
+        classpath.close();
+    }
+    
+    @Test
+    public void testTimeout() throws Exception {
+        ClassPath classpath = classpath();
+        Analyzer analyzer = new Analyzer(classpath);
+        analyzer.setTimeout(1, TimeUnit.MILLISECONDS);
+        Analysis analysis = analyzer.start();
+        Assert.assertTrue(analysis.await(10, TimeUnit.SECONDS));
+        Assert.assertFalse(analysis.isComplete());
+        classpath.close();
+    }
+    
+    @Test
+    public void testFailFast() throws Exception {
+        ClassPath classpath = classpath();
+        Analyzer analyzer = new Analyzer(classpath, "a.Missing1", "a.Missing2", "a.Missing3", "a.Missing4", "oops.Permutations");
+        analyzer.setFailFast(2);
+        Analysis analysis = analyzer.start();
+        Assert.assertEquals(2, analysis.getFailures().size());
+        Assert.assertTrue(analyzer.isFailedFast());
+        Assert.assertEquals(2, analyzer.getFailureCount());
+        Assert.assertFalse(analysis.isComplete());
+        classpath.close();
+        
+        classpath = classpath();
+        analyzer = new Analyzer(classpath, "a.Missing1", "oops.Permutations");
+        analyzer.setFailFast(2);
+        analysis = analyzer.start();
+        Assert.assertEquals(1, analysis.getFailures().size());
+        Assert.assertFalse(analyzer.isFailedFast());
+        Assert.assertTrue(analysis.isComplete());
+        classpath.close();
+    }
+    
+    @Test
+    public void testPoolBounds() throws Exception {
+        ClassPath classpath = classpath();
+        Analyzer analyzer = new Analyzer(classpath, "oops.Permutations");
+        analyzer.setPoolBounds(1, 2);
+        Assert.assertEquals(2, analyzer.getPoolSize());
+        Analysis analysis = analyzer.start();
+        Assert.assertTrue(analysis.await(60, TimeUnit.SECONDS));
+        Assert.assertTrue(analysis.isComplete());
+        Assert.assertTrue(analyzer.getPoolSize() <= 2);
+        classpath.close();
+    }
+}
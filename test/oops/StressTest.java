@@ -0,0 +1,310 @@
+package oops;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import oops.classpath.ClassBuffer;
+import oops.classpath.ClassPath;
+import oops.classpath.ClassSource;
+import oops.classpath.MemorySource;
+import oops.classpath.PlatformIndex;
+import oops.util.ConcurrentDependencyVisitor;
+import oops.util.ReferenceCache;
+
+/**
+ * Stress the traversal engine with many concurrent analyses of generated
+ * class graphs, read with random delays, that run to the end, time out, are
+ * cancelled or have their thread or a pool thread interrupted.  Every class
+ * must be read and reported once at most, and reported exactly once by a
+ * complete run; nothing may be reported after the end, and no pool thread
+ * may outlive its analysis.
+ */
+public class StressTest {
+    private static final int CLASSES = 400;
+    private static final int MISSING = 40;
+    private static final int ROUNDS = 3;
+    private static final int CONCURRENT = 6;
+    
+    @Test
+    public void testConcurrentAnalyses() throws Exception {
+        final Random random = new Random(48);
+        for (int round = 0; round < ROUNDS; ++round) {
+            final Graph graph = new Graph(random.nextLong());
+            //the analyses of a round parse each class once between them
+            ReferenceCache cache = new ReferenceCache(1 << 24);
+            final List<Run> runs = new ArrayList<Run>();
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < CONCURRENT; ++i) {
+                final Run run = new Run(graph, random.nextLong(), 200, 0);
+                run.analyzer.setReferenceCache(cache);
+                runs.add(run);
+                threads.add(new Thread(run.analyzer, "stress-" + round + "-" + i));
+            }
+            for (Thread thread : threads) thread.start();
+            join(threads);
+            
+            long reads = 0;
+            for (Run run : runs) {
+                Assert.assertEquals(graph.failures.size(), run.analyzer.getFailureCount());
+                run.visitor.assertEnded();
+                run.visitor.assertExactlyOnce(graph.successes, graph.failures);
+                reads += run.source.reads.get();
+                //no class is read twice within an analysis
+                Assert.assertEquals(run.source.names.size(), run.source.reads.get());
+                assertNoLeakedThreads(run);
+            }
+            //java.lang.Object is indexed, never parsed; a class parsed again
+            //missed the cache while another analysis had just parsed it
+            int parsed = graph.successes.size() - 1;
+            Assert.assertTrue(cache.getMisses() >= parsed);
+            Assert.assertEquals(runs.size() * parsed, cache.getHits() + cache.getMisses());
+            System.out.printf("Stress round %d: %d reads, duplicate parse rate %.4f%n", round, reads,
+                (double) (cache.getMisses() - parsed) / cache.getMisses());
+        }
+    }
+    
+    @Test
+    public void testTimeoutCancelAndInterrupt() throws Exception {
+        Random random = new Random(480);
+        Graph graph = new Graph(random.nextLong());
+        List<Run> runs = new ArrayList<Run>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < CONCURRENT * 2; ++i) {
+            //every fourth run interrupts a pool thread queueing a reference
+            Run run = new Run(graph, random.nextLong(), 2000, i % 4 == 3 ? 1 + random.nextInt(100) : 0);
+            if (i % 4 == 0) run.analyzer.setTimeout(1 + random.nextInt(50), TimeUnit.MILLISECONDS);
+            runs.add(run);
+            threads.add(new Thread(run.analyzer, "stress-stop-" + i));
+        }
+        for (Thread thread : threads) thread.start();
+        for (int i = 0; i < threads.size(); ++i) {
+            Thread.sleep(random.nextInt(20));
+            if (i % 4 == 1) runs.get(i).analyzer.cancel();
+            else if (i % 4 == 2) threads.get(i).interrupt();
+        }
+        join(threads);
+        
+        int stopped = 0;
+        for (Run run : runs) {
+            run.visitor.assertEnded();
+            run.visitor.assertAtMostOnce(graph.successes, graph.failures);
+            Assert.assertEquals(run.source.names.size(), run.source.reads.get());
+            assertNoLeakedThreads(run);
+            if (run.analyzer.isCancelled()) ++stopped;
+        }
+        System.out.printf("Stress stops: %d of %d runs ended early%n", stopped, runs.size());
+    }
+    
+    private static void join(List<Thread> threads) throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join(60000);
+            Assert.assertFalse("analysis still running on " + thread.getName(), thread.isAlive());
+        }
+    }
+    
+    private static void assertNoLeakedThreads(Run run) throws InterruptedException {
+        for (Thread thread : run.source.threads) {
+            //pool workers may still be on their way out
+            thread.join(5000);
+            Assert.assertFalse("leaked thread " + thread.getName(), thread.isAlive());
+        }
+    }
+    
+    /**
+     * A random class graph and the results expected from its roots.
+     */
+    private static class Graph {
+        final MemorySource classes = new MemorySource("stress");
+        final List<String> roots = new ArrayList<String>();
+        final Set<String> successes = new HashSet<String>();
+        final Set<String> failures = new HashSet<String>();
+        
+        Graph(long seed) {
+            Random random = new Random(seed);
+            Map<String, List<String>> references = new HashMap<String, List<String>>();
+            for (int i = 0; i < CLASSES; ++i) {
+                List<String> refs = new ArrayList<String>();
+                int count = random.nextInt(5);
+                for (int j = 0; j < count; ++j) {
+                    refs.add(random.nextInt(10) == 0
+                        ? "stress/missing/M" + random.nextInt(MISSING)
+                        : "stress/C" + random.nextInt(CLASSES));
+                }
+                references.put("stress/C" + i, refs);
+                classes.put("stress/C" + i, generate("stress/C" + i, refs));
+            }
+            for (int i = 0; i < 5; ++i) roots.add("stress.C" + random.nextInt(CLASSES));
+            
+            ArrayDeque<String> queue = new ArrayDeque<String>();
+            for (String root : roots) queue.add(root.replace('.', '/'));
+            successes.add("java.lang.Object");
+            while (!queue.isEmpty()) {
+                String name = queue.poll();
+                String outForm = name.replace('/', '.');
+                if (successes.contains(outForm) || failures.contains(outForm)) continue;
+                List<String> refs = references.get(name);
+                if (refs == null) {
+                    failures.add(outForm);
+                    continue;
+                }
+                successes.add(outForm);
+                queue.addAll(refs);
+            }
+        }
+        
+        private static byte[] generate(String name, List<String> refs) {
+            ClassWriter cw = new ClassWriter(0);
+            cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+            for (int i = 0; i < refs.size(); ++i) {
+                cw.visitField(Opcodes.ACC_PUBLIC, "f" + i, "L" + refs.get(i) + ";", null, null).visitEnd();
+            }
+            cw.visitEnd();
+            return cw.toByteArray();
+        }
+    }
+    
+    /**
+     * One analysis of a graph, read through its own delaying source.
+     */
+    private static class Run {
+        final DelayingSource source;
+        final CountingVisitor visitor = new CountingVisitor();
+        final Analyzer analyzer;
+        
+        /**
+         * @param interruptAt the number of references queued before the
+         * pool thread queueing the next one is interrupted, or 0 for never
+         */
+        Run(Graph graph, long seed, int maxDelayMicros, int interruptAt) throws Exception {
+            source = new DelayingSource(graph.classes, seed, maxDelayMicros);
+            ClassPath classpath = ClassPath.of(PlatformIndex.current());
+            classpath.add(source);
+            final AtomicInteger countdown = new AtomicInteger(interruptAt);
+            analyzer = new Analyzer(classpath, graph.roots.toArray(new String[graph.roots.size()])) {
+                @Override
+                protected void addType(String type, int priority, String referrer) {
+                    if (countdown.decrementAndGet() == 0) Thread.currentThread().interrupt();
+                    super.addType(type, priority, referrer);
+                }
+            };
+            analyzer.setDependencyVisitor(visitor);
+        }
+    }
+    
+    /**
+     * Reads classes after a random pause, counting the reads of each.
+     */
+    private static class DelayingSource implements ClassSource {
+        final ClassSource delegate;
+        final Random random;
+        final int maxDelayMicros;
+        final Set<String> names = ConcurrentHashMap.newKeySet();
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        final AtomicInteger reads = new AtomicInteger();
+        
+        DelayingSource(ClassSource delegate, long seed, int maxDelayMicros) {
+            this.delegate = delegate;
+            this.random = new Random(seed);
+            this.maxDelayMicros = maxDelayMicros;
+        }
+        
+        public String getLocation() {
+            return delegate.getLocation();
+        }
+        
+        public boolean read(String name, ClassBuffer buffer) throws IOException {
+            reads.incrementAndGet();
+            names.add(name);
+            threads.add(Thread.currentThread());
+            int delay;
+            synchronized (random) {
+                delay = random.nextInt(maxDelayMicros);
+            }
+            //returns early, without an exception, when interrupted
+            LockSupport.parkNanos(delay * 1000L);
+            return delegate.read(name, buffer);
+        }
+        
+        public void close() {}
+    }
+    
+    /**
+     * Collects the results as any client does, and counts the reports of
+     * every class and anything reported after the end.
+     */
+    private static class CountingVisitor extends ConcurrentDependencyVisitor {
+        final ConcurrentMap<String, AtomicInteger> successes = new ConcurrentHashMap<String, AtomicInteger>();
+        final ConcurrentMap<String, AtomicInteger> failures = new ConcurrentHashMap<String, AtomicInteger>();
+        final AtomicInteger ends = new AtomicInteger();
+        final AtomicInteger late = new AtomicInteger();
+        
+        @Override
+        public void success(String name) {
+            count(successes, name);
+            super.success(name);
+        }
+        
+        @Override
+        public void fail(String name) {
+            count(failures, name);
+            super.fail(name);
+        }
+        
+        @Override
+        public void end() {
+            ends.incrementAndGet();
+            super.end();
+        }
+        
+        private void count(ConcurrentMap<String, AtomicInteger> counts, String name) {
+            if (isEnded()) late.incrementAndGet();
+            AtomicInteger count = counts.get(name);
+            if (count == null) {
+                AtomicInteger first = counts.putIfAbsent(name, count = new AtomicInteger());
+                if (first != null) count = first;
+            }
+            count.incrementAndGet();
+        }
+        
+        void assertEnded() {
+            Assert.assertEquals(1, ends.get());
+            Assert.assertEquals(0, late.get());
+        }
+        
+        void assertAtMostOnce(Set<String> expectedSuccesses, Set<String> expectedFailures) {
+            for (Map.Entry<String, AtomicInteger> entry : successes.entrySet()) {
+                Assert.assertTrue(entry.getKey(), expectedSuccesses.contains(entry.getKey()));
+                Assert.assertEquals(entry.getKey(), 1, entry.getValue().get());
+            }
+            for (Map.Entry<String, AtomicInteger> entry : failures.entrySet()) {
+                Assert.assertTrue(entry.getKey(), expectedFailures.contains(entry.getKey()));
+                Assert.assertEquals(entry.getKey(), 1, entry.getValue().get());
+            }
+        }
+        
+        void assertExactlyOnce(Set<String> expectedSuccesses, Set<String> expectedFailures) throws InterruptedException {
+            assertAtMostOnce(expectedSuccesses, expectedFailures);
+            Assert.assertEquals(expectedSuccesses, successes.keySet());
+            Assert.assertEquals(expectedFailures, failures.keySet());
+            Assert.assertEquals(expectedSuccesses, getSuccesses());
+            Assert.assertEquals(expectedFailures, getFailures());
+        }
+    }
+}
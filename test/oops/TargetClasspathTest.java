@@ -0,0 +1,63 @@
+package oops;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.classpath.ClassPath;
+import oops.util.ConcurrentDependencyVisitor;
+
+/**
+ * Test that an explicit class path is analyzed in isolation from the class
+ * path of the running JVM.
+ */
+public class TargetClasspathTest {
+    private static String testClasses() throws Exception {
+        return new File(Permutations.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+    
+    @Test
+    public void testIsolation() throws Exception {
+        Set<String> failures = Analyzer.analyze(ClassPath.of(), "oops.Permutations");
+        Assert.assertTrue(failures.contains("oops.Permutations"));
+        
+        ClassPath classpath = ClassPath.of(testClasses());
+        ConcurrentDependencyVisitor cdv = new ConcurrentDependencyVisitor();
+        Analyzer.analyze(cdv, classpath, "oops.Permutations");
+        Assert.assertTrue(cdv.getSuccesses().contains("oops.FieldTypeReference"));
+        Assert.assertTrue(cdv.getSuccesses().contains("java.lang.Object"));
+        Assert.assertFalse(cdv.getFailures().contains("oops.FieldTypeReference"));
+        classpath.close();
+    }
+    
+    @Test
+    public void testConcurrentAnalyses() throws Exception {
+        final ClassPath classpath = ClassPath.of(testClasses());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Set<String>>> results = new ArrayList<Future<Set<String>>>();
+        for (int i = 0; i < 4; ++i) {
+            results.add(executor.submit(new Callable<Set<String>>() {
+                public Set<String> call() throws Exception {
+                    ConcurrentDependencyVisitor cdv = new ConcurrentDependencyVisitor();
+                    Analyzer.analyze(cdv, classpath, "oops.Permutations");
+                    return cdv.getSuccesses();
+                }
+            }));
+        }
+        Set<String> first = results.get(0).get();
+        Assert.assertTrue(first.contains("oops.Permutations$InnerClass"));
+        for (Future<Set<String>> result : results) {
+            Assert.assertEquals(first, result.get());
+        }
+        executor.shutdown();
+        classpath.close();
+    }
+}
@@ -0,0 +1,56 @@
+package oops;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Reads the class files of test classes, for tests that build class paths
+ * of their own.
+ */
+public final class TestClasses {
+    private TestClasses() {}
+    
+    /**
+     * @param clazz a class loaded from a class file
+     * @return the bytes of its class file
+     * @throws IOException if the class file cannot be read
+     */
+    public static byte[] bytes(Class<?> clazz) throws IOException {
+        InputStream in = open(clazz);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int r;
+            while ((r = in.read(chunk)) != -1) out.write(chunk, 0, r);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Copy the class file of a class, replacing the target if it exists.
+     * @param clazz a class loaded from a class file
+     * @param to the file to write
+     * @throws IOException if the class file cannot be read or written
+     */
+    public static void copy(Class<?> clazz, File to) throws IOException {
+        InputStream in = open(clazz);
+        try {
+            Files.copy(in, to.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            in.close();
+        }
+    }
+    
+    private static InputStream open(Class<?> clazz) throws IOException {
+        String name = clazz.getName();
+        InputStream in = clazz.getResourceAsStream(name.substring(name.lastIndexOf('.') + 1) + ".class");
+        if (in == null) throw new IOException("No class file for " + name);
+        return in;
+    }
+}
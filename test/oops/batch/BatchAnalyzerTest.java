@@ -0,0 +1,77 @@
+package oops.batch;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.Permutations;
+import oops.classpath.PlatformIndex;
+import oops.util.ClassNameSet;
+
+/**
+ * Test that the batch analyzer composes per-entry summaries into the
+ * missing classes of each class path.
+ */
+public class BatchAnalyzerTest {
+    private static String locationOf(Class<?> clazz) throws Exception {
+        return new File(clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+    
+    @Test
+    public void testBatch() throws Exception {
+        String tests = locationOf(Permutations.class);
+        String junit = locationOf(Assert.class);
+        
+        Map<String, List<String>> classpaths = new LinkedHashMap<String, List<String>>();
+        classpaths.put("alone", Arrays.asList(tests));
+        classpaths.put("withJunit", Arrays.asList(tests, junit));
+        
+        BatchAnalyzer batch = new BatchAnalyzer(PlatformIndex.current(), 2);
+        try {
+            Map<String, ClassNameSet> results = batch.analyze(classpaths);
+            ClassNameSet alone = results.get("alone");
+            Assert.assertTrue(alone.contains("org.junit.Assert"));
+            Assert.assertFalse(alone.contains("oops.Permutations"));
+            Assert.assertFalse(alone.contains("java.lang.Object"));
+            
+            ClassNameSet withJunit = results.get("withJunit");
+            Assert.assertFalse(withJunit.contains("org.junit.Assert"));
+            Assert.assertTrue(withJunit.contains("oops.Analyzer"));
+            
+            JarSummary summary = batch.getSummary(tests);
+            Assert.assertSame(summary, batch.getSummary(tests));
+            Assert.assertTrue(summary.provides("oops/Permutations"));
+            Assert.assertTrue(summary.getReferences().contains("org/junit/Assert"));
+            Assert.assertFalse(summary.getReferences().contains("oops/FieldTypeReference"));
+        } finally {
+            batch.shutdown();
+        }
+    }
+    
+    @Test
+    public void testDiff() throws Exception {
+        String tests = locationOf(Permutations.class);
+        String junit = locationOf(Assert.class);
+        
+        BatchAnalyzer batch = new BatchAnalyzer(PlatformIndex.current(), 2);
+        try {
+            ClasspathDiff diff = batch.diff(Arrays.asList(tests), Arrays.asList(tests, junit));
+            Assert.assertTrue(diff.getNewlyResolved().contains("org.junit.Assert"));
+            Assert.assertFalse(diff.getNewlyResolved().contains("oops.Analyzer"));
+            Assert.assertFalse(diff.getNewlyMissing().contains("oops.Analyzer"));
+            Assert.assertTrue(diff.getMissingAfter().contains("oops.Analyzer"));
+            
+            ClasspathDiff reverse = batch.diff(Arrays.asList(tests, junit), Arrays.asList(tests));
+            Assert.assertEquals(diff.getNewlyResolved(), reverse.getNewlyMissing());
+            Assert.assertEquals(diff.getNewlyMissing(), reverse.getNewlyResolved());
+            Assert.assertTrue(batch.diff(Arrays.asList(tests), Arrays.asList(tests)).isEmpty());
+        } finally {
+            batch.shutdown();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package oops.checkpoint;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.Analysis;
+import oops.Analyzer;
+import oops.classpath.ClassPath;
+
+/**
+ * Test that a checkpoint log reads back what was logged, drops a torn
+ * record, refuses another analysis, and lets an analysis resume to the
+ * same results.
+ */
+public class CheckpointLogTest {
+    private static final List<String> ROOTS = Arrays.asList("oops.Permutations", "a.Missing1");
+    private static final List<String> ENTRIES = Arrays.asList("dir");
+    
+    @Test
+    public void testReadBack() throws Exception {
+        File file = File.createTempFile("oops", ".ckp");
+        try {
+            file.delete();
+            CheckpointLog log = new CheckpointLog(file, ROOTS, ENTRIES);
+            Assert.assertTrue(log.getEntries().isEmpty());
+            log.found("a/A", 1, "dir", null, Arrays.asList("a/B", "a/C"));
+            log.missing("a/B", "a.A");
+            log.found("a/C", 2, "dir", "a.A", Collections.<String>emptyList());
+            log.close();
+            
+            log = new CheckpointLog(file, ROOTS, ENTRIES);
+            List<CheckpointLog.Entry> entries = log.getEntries();
+            Assert.assertEquals(3, entries.size());
+            Assert.assertEquals("a/A", entries.get(0).getName());
+            Assert.assertEquals(Arrays.asList("a/B", "a/C"), entries.get(0).getReferences());
+            Assert.assertNull(entries.get(0).getReferrer());
+            Assert.assertFalse(entries.get(1).isFound());
+            Assert.assertEquals("a.A", entries.get(1).getReferrer());
+            Assert.assertEquals(2, entries.get(2).getPriority());
+            log.found("a/D", 1, "dir", null, Collections.<String>emptyList());
+            log.close();
+            
+            //cut the last record short
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(raf.length() - 2);
+            raf.close();
+            log = new CheckpointLog(file, ROOTS, ENTRIES);
+            Assert.assertEquals(3, log.getEntries().size());
+            log.close();
+            Assert.assertEquals(3, new CheckpointLog(file, ROOTS, ENTRIES).getEntries().size());
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void testOtherAnalysis() throws Exception {
+        File file = File.createTempFile("oops", ".ckp");
+        try {
+            file.delete();
+            CheckpointLog log = new CheckpointLog(file, ROOTS, ENTRIES);
+            log.missing("a/Missing1", null);
+            log.close();
+            try {
+                new CheckpointLog(file, ROOTS, Arrays.asList("dir", "lib.jar"));
+                Assert.fail("resumed with another class path");
+            } catch (IOException expected) {
+            }
+            try {
+                new CheckpointLog(file, Collections.<String>emptyList(), ENTRIES);
+                Assert.fail("resumed with other roots");
+            } catch (IOException expected) {
+            }
+            Assert.assertEquals(1, new CheckpointLog(file, ROOTS, ENTRIES).getEntries().size());
+        } finally {
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void testResumeFailFast() throws Exception {
+        File file = File.createTempFile("oops", ".ckp");
+        ClassPath classpath = ClassPath.of(System.getProperty("java.class.path").split(File.pathSeparator));
+        try {
+            file.delete();
+            CheckpointLog log = new CheckpointLog(file, ROOTS, ENTRIES);
+            log.missing("a/Missing2", null);
+            log.missing("a/Missing3", null);
+            log.close();
+            log = new CheckpointLog(file, ROOTS, ENTRIES);
+            Analyzer resumed = new Analyzer(classpath, "oops.Permutations", "a.Missing1");
+            resumed.setCheckpoint(log);
+            resumed.setFailFast(1);
+            Analysis analysis = resumed.start();
+            Assert.assertTrue(analysis.await(60, TimeUnit.SECONDS));
+            log.close();
+            Assert.assertTrue(resumed.isFailedFast());
+            Assert.assertEquals(1, analysis.getFailures().size());
+        } finally {
+            classpath.close();
+            file.delete();
+        }
+    }
+    
+    @Test
+    public void testResume() throws Exception {
+        File file = File.createTempFile("oops", ".ckp");
+        ClassPath classpath = ClassPath.of(System.getProperty("java.class.path").split(File.pathSeparator));
+        try {
+            file.delete();
+            CheckpointLog log = new CheckpointLog(file, ROOTS, ENTRIES);
+            Analyzer analyzer = new Analyzer(classpath, "oops.Permutations", "a.Missing1");
+            analyzer.setCheckpoint(log);
+            Analysis analysis = analyzer.start();
+            Assert.assertTrue(analysis.await(60, TimeUnit.SECONDS));
+            log.close();
+            int logged = new CheckpointLog(file, ROOTS, ENTRIES).getEntries().size();
+            Assert.assertEquals(analysis.getSuccesses().size() + analysis.getFailures().size(), logged);
+            
+            //keep about half of the log, as if the analysis had been killed
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(raf.length() / 2);
+            raf.close();
+            log = new CheckpointLog(file, ROOTS, ENTRIES);
+            Assert.assertTrue(log.getEntries().size() < logged);
+            Analyzer resumed = new Analyzer(classpath, "oops.Permutations", "a.Missing1");
+            resumed.setCheckpoint(log);
+            Analysis again = resumed.start();
+            Assert.assertTrue(again.await(60, TimeUnit.SECONDS));
+            log.close();
+            Assert.assertEquals(analysis.getSuccesses(), again.getSuccesses());
+            Assert.assertEquals(analysis.getFailures(), again.getFailures());
+            Assert.assertEquals(logged, new CheckpointLog(file, ROOTS, ENTRIES).getEntries().size());
+        } finally {
+            classpath.close();
+            file.delete();
+        }
+    }
+}
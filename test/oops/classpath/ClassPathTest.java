@@ -0,0 +1,34 @@
+package oops.classpath;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.Permutations;
+
+/**
+ * Test the default and configured priorities of class path entries.
+ */
+public class ClassPathTest {
+    @Test
+    public void testPriorities() throws Exception {
+        String classes = new File(Permutations.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        String jar = new File("lib/asm-3.1.jar").getPath();
+        ClassPath classpath = ClassPath.of(classes, jar);
+        ClassSource directory = classpath.getSources().get(0);
+        ClassSource library = classpath.getSources().get(1);
+        ClassSource platform = classpath.getSources().get(2);
+        Assert.assertEquals(ClassPath.APPLICATION, classpath.getPriority(directory));
+        Assert.assertEquals(ClassPath.LIBRARY, classpath.getPriority(library));
+        Assert.assertEquals(ClassPath.PLATFORM, classpath.getPriority(platform));
+        
+        classpath.setPriority(library, ClassPath.APPLICATION);
+        Assert.assertEquals(ClassPath.APPLICATION, classpath.getPriority(library));
+        
+        Assert.assertEquals(ClassPath.PLATFORM, classpath.priorityOf("java/lang/String", ClassPath.ROOT));
+        Assert.assertEquals(ClassPath.APPLICATION, classpath.priorityOf("oops/Permutations", ClassPath.ROOT));
+        Assert.assertEquals(ClassPath.LIBRARY, classpath.priorityOf("org/objectweb/asm/Type", ClassPath.LIBRARY));
+        classpath.close();
+    }
+}
@@ -0,0 +1,62 @@
+package oops.classpath;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.Analysis;
+import oops.Analyzer;
+import oops.Enumeration;
+import oops.TestClasses;
+import oops.TypeInEnumeration;
+
+/**
+ * Test that classes held in memory or streamed from an archive are
+ * analyzed like the classes of a class path entry.
+ */
+public class MemorySourceTest {
+    @Test
+    public void testBytes() throws Exception {
+        MemorySource source = new MemorySource("generated");
+        Assert.assertEquals("oops/Enumeration", source.put(TestClasses.bytes(Enumeration.class)));
+        ClassPath classpath = ClassPath.of(PlatformIndex.current());
+        classpath.add(source);
+        Analysis analysis = new Analyzer(classpath).start();
+        Assert.assertTrue(analysis.await(60, TimeUnit.SECONDS));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("oops.TypeInEnumeration")), analysis.getFailures());
+        Assert.assertTrue(analysis.getSuccesses().contains("oops.Enumeration"));
+        
+        source.put("oops.TypeInEnumeration", TestClasses.bytes(TypeInEnumeration.class));
+        analysis = new Analyzer(classpath, "oops.Enumeration").start();
+        Assert.assertTrue(analysis.await(60, TimeUnit.SECONDS));
+        Assert.assertTrue(analysis.getFailures().isEmpty());
+    }
+    
+    @Test
+    public void testStream() throws Exception {
+        ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(jar);
+        zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+        zip.write("Manifest-Version: 1.0\n".getBytes("UTF-8"));
+        for (Class<?> clazz : new Class<?>[] {Enumeration.class, TypeInEnumeration.class}) {
+            zip.putNextEntry(new ZipEntry(clazz.getName().replace('.', '/') + ".class"));
+            zip.write(TestClasses.bytes(clazz));
+        }
+        zip.close();
+        
+        MemorySource source = MemorySource.read("streamed.jar", new ByteArrayInputStream(jar.toByteArray()));
+        Assert.assertEquals(new HashSet<String>(Arrays.asList("oops/Enumeration", "oops/TypeInEnumeration")),
+            new HashSet<String>(source.classNames()));
+        ClassBuffer buffer = ClassBuffer.get();
+        Assert.assertTrue(source.read("oops/TypeInEnumeration", buffer));
+        Assert.assertEquals(TestClasses.bytes(TypeInEnumeration.class).length, buffer.getLength());
+        Assert.assertFalse(source.read("META-INF/MANIFEST", buffer));
+    }
+}
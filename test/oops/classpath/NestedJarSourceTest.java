@@ -0,0 +1,123 @@
+package oops.classpath;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.Analysis;
+import oops.Analyzer;
+import oops.Enumeration;
+import oops.TestClasses;
+import oops.TypeInEnumeration;
+
+/**
+ * Test that the classes directory and nested jars of a fat jar are read in
+ * place, whether the nested jars are stored or deflated.
+ */
+public class NestedJarSourceTest {
+    @Test
+    public void testStored() throws Exception {
+        check(ZipEntry.STORED);
+    }
+    
+    @Test
+    public void testDeflated() throws Exception {
+        check(ZipEntry.DEFLATED);
+    }
+    
+    @Test
+    public void testSplitOnFirstRead() throws Exception {
+        File fat = fatJar(ZipEntry.STORED);
+        try {
+            ClassPath classpath = ClassPath.of(PlatformIndex.current(), fat.getPath());
+            Assert.assertTrue(classpath.getSources().get(0) instanceof JarSource);
+            ClassSource found = classpath.read("oops/TypeInEnumeration", ClassBuffer.get());
+            Assert.assertEquals(fat.getPath() + "!/BOOT-INF/lib/lib.jar", found.getLocation());
+            Assert.assertEquals(2, classpath.getSources().size());
+            Assert.assertNull(classpath.split(found));
+            classpath.close();
+        } finally {
+            fat.delete();
+        }
+    }
+    
+    private static void check(int method) throws Exception {
+        File fat = fatJar(method);
+        try {
+            ClassPath classpath = ClassPath.of(PlatformIndex.current(), fat.getPath());
+            //the jar stays whole until it is first listed
+            Assert.assertEquals(1, classpath.getSources().size());
+            
+            Analysis analysis = new Analyzer(classpath).start();
+            Assert.assertTrue(analysis.await(60, TimeUnit.SECONDS));
+            Assert.assertTrue(analysis.getFailures().isEmpty());
+            Assert.assertTrue(analysis.getSuccesses().containsAll(new HashSet<String>(
+                Arrays.asList("oops.Enumeration", "oops.TypeInEnumeration"))));
+            Assert.assertFalse(analysis.getSuccesses().contains("org.springframework.boot.loader.Launcher"));
+            
+            List<ClassSource> sources = classpath.getSources();
+            Assert.assertEquals(2, sources.size());
+            Assert.assertEquals(fat.getPath() + "!/BOOT-INF/classes", sources.get(0).getLocation());
+            Assert.assertEquals(fat.getPath() + "!/BOOT-INF/lib/lib.jar", sources.get(1).getLocation());
+            Assert.assertEquals(Arrays.asList("oops/Enumeration"), new ArrayList<String>(((ListableSource) sources.get(0)).classNames()));
+            
+            //both read the one mapping of the fat jar, which is closed with them
+            JarSource outer = ((NestedJarSource) sources.get(1)).getOuter();
+            Assert.assertSame(outer, ((JarSource) sources.get(0)).getOuter());
+            sources.get(0).close();
+            Assert.assertFalse(outer.classNames().isEmpty());
+            classpath.close();
+            try {
+                outer.classNames();
+                Assert.fail("the fat jar is still open");
+            } catch (IOException expected) {
+            }
+        } finally {
+            fat.delete();
+        }
+    }
+    
+    private static File fatJar(int method) throws Exception {
+        File fat = File.createTempFile("oops", ".jar");
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(fat));
+        add(zip, "org/springframework/boot/loader/Launcher.class", TestClasses.bytes(TypeInEnumeration.class), ZipEntry.DEFLATED);
+        add(zip, "BOOT-INF/classes/oops/Enumeration.class", TestClasses.bytes(Enumeration.class), ZipEntry.DEFLATED);
+        add(zip, "BOOT-INF/lib/lib.jar", jar("oops/TypeInEnumeration.class", TestClasses.bytes(TypeInEnumeration.class)), method);
+        zip.close();
+        return fat;
+    }
+    
+    private static byte[] jar(String name, byte[] bytes) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        add(zip, name, bytes, ZipEntry.DEFLATED);
+        zip.close();
+        return out.toByteArray();
+    }
+    
+    private static void add(ZipOutputStream zip, String name, byte[] bytes, int method) throws Exception {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            entry.setSize(bytes.length);
+            entry.setCrc(crc.getValue());
+        }
+        zip.putNextEntry(entry);
+        zip.write(bytes);
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,57 @@
+package oops.classpath;
+
+import java.io.File;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.Analyzer;
+import oops.Permutations;
+import oops.util.ConcurrentDependencyVisitor;
+
+/**
+ * Test building, caching and using the index of the running platform.
+ */
+public class PlatformIndexTest {
+    @Test
+    public void testIndex() throws Exception {
+        File cache = new File(System.getProperty("java.io.tmpdir"), "oops-test-" + System.nanoTime());
+        String previous = System.getProperty("oops.cache.dir");
+        System.setProperty("oops.cache.dir", cache.getPath());
+        try {
+            File home = new File(System.getProperty("java.home"));
+            PlatformIndex built = PlatformIndex.load(home);
+            File[] files = new File(cache, "platform").listFiles();
+            Assert.assertEquals(1, files.length);
+            PlatformIndex cached = PlatformIndex.load(home);
+            Assert.assertEquals(built.getNames(), cached.getNames());
+            
+            Assert.assertTrue(cached.contains("java/lang/String"));
+            Assert.assertTrue(cached.contains("java/util/Map$Entry"));
+            Assert.assertFalse(cached.contains("java/lang/NoSuchClass"));
+            Assert.assertFalse(cached.contains("oops/Analyzer"));
+            
+            files[0].delete();
+            files[0].getParentFile().delete();
+            cache.delete();
+        } finally {
+            if (previous == null) System.clearProperty("oops.cache.dir");
+            else System.setProperty("oops.cache.dir", previous);
+        }
+    }
+    
+    @Test
+    public void testAnalyzeAgainstIndex() throws Exception {
+        String tests = new File(Permutations.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+        ClassPath classpath = ClassPath.of(PlatformIndex.current(), tests);
+        ConcurrentDependencyVisitor cdv = new ConcurrentDependencyVisitor();
+        Analyzer.analyze(cdv, classpath, "oops.Permutations");
+        Set<String> successes = cdv.getSuccesses();
+        Assert.assertTrue(successes.contains("oops.FieldTypeReference"));
+        Assert.assertTrue(successes.contains("java.lang.Object"));
+        //platform classes are leaves
+        Assert.assertFalse(successes.contains("java.lang.ClassLoader"));
+        Assert.assertTrue(cdv.getFailures().isEmpty());
+    }
+}
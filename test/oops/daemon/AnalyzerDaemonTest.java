@@ -0,0 +1,130 @@
+package oops.daemon;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.Enumeration;
+import oops.FieldTypeReference;
+import oops.TestClasses;
+import oops.TypeInEnumeration;
+import oops.classpath.ClassPath;
+import oops.classpath.PlatformIndex;
+
+/**
+ * Test that the daemon notices a class file being removed and restored,
+ * and answers requests over its socket.
+ */
+public class AnalyzerDaemonTest {
+    @Test
+    public void testWatchesClassFiles() throws Exception {
+        File dir = Files.createTempDirectory("oops").toFile();
+        File oops = new File(dir, "oops");
+        oops.mkdir();
+        File used = new File(oops, "TypeInEnumeration.class");
+        TestClasses.copy(Enumeration.class, new File(oops, "Enumeration.class"));
+        TestClasses.copy(TypeInEnumeration.class, used);
+        AnalyzerDaemon daemon = new AnalyzerDaemon(ClassPath.of(PlatformIndex.current(), dir.getPath()), "oops.Enumeration");
+        try {
+            int port = daemon.start(0);
+            Assert.assertTrue(daemon.getFailures().isEmpty());
+            Assert.assertEquals(Arrays.asList("true"), AnalyzerDaemon.query(port, "resolvable oops.TypeInEnumeration"));
+            Assert.assertEquals(Arrays.asList(dir.getPath()), AnalyzerDaemon.query(port, "which oops.Enumeration"));
+            Assert.assertEquals(Arrays.asList("false"), AnalyzerDaemon.query(port, "resolvable a.Missing1"));
+            
+            used.delete();
+            awaitFailures(port, Arrays.asList("oops.TypeInEnumeration"));
+            TestClasses.copy(TypeInEnumeration.class, used);
+            awaitFailures(port, Collections.<String>emptyList());
+            Assert.assertEquals(Arrays.asList("stopping"), AnalyzerDaemon.query(port, "stop"));
+        } finally {
+            daemon.stop();
+            new File(oops, "Enumeration.class").delete();
+            used.delete();
+            oops.delete();
+            dir.delete();
+        }
+    }
+    
+    @Test
+    public void testWatchesWholeClassPath() throws Exception {
+        File dir = Files.createTempDirectory("oops").toFile();
+        File oops = new File(dir, "oops");
+        oops.mkdir();
+        File root = new File(oops, "Enumeration.class");
+        File used = new File(oops, "TypeInEnumeration.class");
+        TestClasses.copy(FieldTypeReference.class, new File(oops, "FieldTypeReference.class"));
+        AnalyzerDaemon daemon = new AnalyzerDaemon(ClassPath.of(PlatformIndex.current(), dir.getPath()));
+        try {
+            int port = daemon.start(0);
+            Assert.assertTrue(daemon.getFailures().isEmpty());
+            //a client that never sends its request is dropped
+            Socket silent = new Socket(InetAddress.getLoopbackAddress(), port);
+            try {
+                Assert.assertEquals(Arrays.asList("true"), AnalyzerDaemon.query(port, "resolvable oops.FieldTypeReference"));
+            } finally {
+                silent.close();
+            }
+            
+            //a new class file is a root as well
+            TestClasses.copy(Enumeration.class, root);
+            awaitFailures(port, Arrays.asList("oops.TypeInEnumeration"));
+            TestClasses.copy(TypeInEnumeration.class, used);
+            awaitFailures(port, Collections.<String>emptyList());
+            used.delete();
+            awaitFailures(port, Arrays.asList("oops.TypeInEnumeration"));
+            
+            //a rewritten root stays a root
+            TestClasses.copy(Enumeration.class, root);
+            TestClasses.copy(FieldTypeReference.class, new File(oops, "FieldTypeReference.class"));
+            Thread.sleep(4 * ClassPathWatcher.QUIET_MILLIS);
+            awaitFailures(port, Arrays.asList("oops.TypeInEnumeration"));
+        } finally {
+            daemon.stop();
+            root.delete();
+            used.delete();
+            new File(oops, "FieldTypeReference.class").delete();
+            oops.delete();
+            dir.delete();
+        }
+    }
+    
+    @Test
+    public void testLookupsOutsideGraph() throws Exception {
+        File dir = Files.createTempDirectory("oops").toFile();
+        File oops = new File(dir, "oops");
+        oops.mkdir();
+        TestClasses.copy(Enumeration.class, new File(oops, "Enumeration.class"));
+        TestClasses.copy(TypeInEnumeration.class, new File(oops, "TypeInEnumeration.class"));
+        TestClasses.copy(FieldTypeReference.class, new File(oops, "FieldTypeReference.class"));
+        ClassPath classpath = ClassPath.of(PlatformIndex.current(), dir.getPath());
+        try {
+            ClassGraph graph = new ClassGraph(classpath, Arrays.asList("oops.Enumeration"));
+            graph.load();
+            int size = graph.size();
+            Assert.assertNull(graph.locate("a.Missing1"));
+            Assert.assertEquals(dir.getPath(), graph.locate("oops.FieldTypeReference"));
+            Assert.assertEquals(dir.getPath(), graph.locate("oops.TypeInEnumeration"));
+            Assert.assertEquals(size, graph.size());
+        } finally {
+            classpath.close();
+            for (File file : oops.listFiles()) file.delete();
+            oops.delete();
+            dir.delete();
+        }
+    }
+    
+    private static void awaitFailures(int port, Object expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 20000;
+        while (!expected.equals(AnalyzerDaemon.query(port, "failures"))) {
+            Assert.assertTrue("timed out waiting for " + expected, System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
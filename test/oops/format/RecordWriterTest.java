@@ -0,0 +1,65 @@
+package oops.format;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.Analyzer;
+import oops.classpath.ClassPath;
+
+/**
+ * Test the JSON Lines and binary record formats.
+ */
+public class RecordWriterTest {
+    @Test
+    public void testJsonLines() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RecordWriter writer = RecordWriter.forFormat("jsonl", bytes);
+        writer.success("a.B", "lib/a \"b\".jar", null);
+        writer.fail("a.C", "a.B");
+        writer.end();
+        Assert.assertNull(writer.getError());
+        Assert.assertEquals("{\"class\":\"a.B\",\"status\":\"success\",\"source\":\"lib/a \\\"b\\\".jar\"}\n"
+            + "{\"class\":\"a.C\",\"status\":\"failure\",\"referrer\":\"a.B\"}\n", bytes.toString("UTF-8"));
+    }
+    
+    @Test
+    public void testBinary() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        RecordWriter writer = RecordWriter.forFormat("binary", bytes);
+        writer.success("a.B", "lib/a.jar", null);
+        writer.fail("a.C", "a.B");
+        writer.end();
+        
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        Assert.assertEquals(BinaryRecordWriter.MAGIC, in.readInt());
+        Assert.assertEquals(BinaryRecordWriter.VERSION, in.readInt());
+        Assert.assertEquals(1 + 5 + 11 + 2, in.readInt());
+        Assert.assertEquals(0, in.readByte());
+        Assert.assertEquals("a.B", in.readUTF());
+        Assert.assertEquals("lib/a.jar", in.readUTF());
+        Assert.assertEquals("", in.readUTF());
+        in.readInt();
+        Assert.assertEquals(1, in.readByte());
+        Assert.assertEquals("a.C", in.readUTF());
+        Assert.assertEquals("", in.readUTF());
+        Assert.assertEquals("a.B", in.readUTF());
+        Assert.assertEquals(-1, in.read());
+    }
+    
+    @Test
+    public void testAnalysis() throws Exception {
+        ClassPath classpath = ClassPath.of(System.getProperty("java.class.path").split(File.pathSeparator));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Analyzer.analyze(RecordWriter.forFormat("jsonl", bytes), classpath, "oops.Permutations", "a.Missing");
+        String records = bytes.toString("UTF-8");
+        Assert.assertTrue(records.contains("{\"class\":\"a.Missing\",\"status\":\"failure\"}\n"));
+        Assert.assertTrue(records.contains("{\"class\":\"oops.FieldTypeReference\",\"status\":\"success\",\"source\":"));
+        Assert.assertTrue(records.contains("\"referrer\":\"oops.Permutations\"}\n"));
+        classpath.close();
+    }
+}
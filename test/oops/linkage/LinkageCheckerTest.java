@@ -0,0 +1,149 @@
+package oops.linkage;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import oops.Analyzer;
+import oops.LinkageVisitor;
+import oops.classpath.ClassBuffer;
+import oops.classpath.ClassPath;
+import oops.classpath.ClassSource;
+import oops.util.ConcurrentDependencyVisitor;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Test member resolution through the supertypes of a class, both on
+ * recorded tables and on a generated class analyzed against the test
+ * classes.
+ */
+public class LinkageCheckerTest {
+    @Test
+    public void testResolution() {
+        LinkageChecker checker = new LinkageChecker();
+        LinkageChecker.Recorder recorder = checker.newRecorder();
+        
+        recorder.begin(false);
+        recorder.visitClass("a/Base", null, new String[] {"a/Named"});
+        recorder.visitField("count", "I");
+        recorder.visitMethod("<init>", "()V");
+        recorder.visitMethod("run", "()V");
+        recorder.end();
+        
+        recorder.begin(false);
+        recorder.visitClass("a/Named", null, null);
+        recorder.visitMethod("name", "()Ljava/lang/String;");
+        recorder.end();
+        
+        recorder.begin(false);
+        recorder.visitClass("a/Derived", "a/Base", null);
+        recorder.end();
+        
+        recorder.begin(true);
+        recorder.visitClass("a/Caller", null, null);
+        recorder.visitMethod("call", "()V");
+        recorder.visitReference("a/Derived", "run", "()V");
+        recorder.visitReference("a/Derived", "name", "()Ljava/lang/String;");
+        recorder.visitReference("a/Derived", "count", "I");
+        recorder.visitReference("a/Derived", "count", "J");
+        recorder.visitReference("a/Derived", "<init>", "()V");
+        recorder.visitReference("a/Derived", "stop", "()V");
+        recorder.visitReference("a/Derived", "stop", "()V");
+        recorder.visitReference("a/Missing", "stop", "()V");
+        recorder.visitReference("[La/Derived;", "clone", "()Ljava/lang/Object;");
+        recorder.end();
+        
+        //a class begun again without being ended is dropped
+        recorder.begin(true);
+        recorder.visitClass("a/Broken", "a/Base", null);
+        recorder.visitMethod("call", "()V");
+        recorder.visitReference("a/Derived", "stop", "()V");
+        recorder.begin(true);
+        recorder.end();
+        
+        CollectingVisitor visitor = new CollectingVisitor();
+        Assert.assertEquals(3, checker.check(visitor));
+        Assert.assertEquals(3, visitor.unresolved.size());
+        Assert.assertTrue(visitor.unresolved.contains("a.Caller.call()V a.Derived.count J"));
+        Assert.assertTrue(visitor.unresolved.contains("a.Caller.call()V a.Derived.<init> ()V"));
+        Assert.assertTrue(visitor.unresolved.contains("a.Caller.call()V a.Derived.stop ()V"));
+    }
+    
+    @Test
+    public void testUnknownSupertype() {
+        LinkageChecker checker = new LinkageChecker();
+        LinkageChecker.Recorder recorder = checker.newRecorder();
+        recorder.begin(true);
+        recorder.visitClass("a/Widget", "b/Unparsed", null);
+        recorder.visitMethod("call", "()V");
+        recorder.visitReference("a/Widget", "anything", "()V");
+        recorder.end();
+        Assert.assertEquals(0, checker.check(new CollectingVisitor()));
+    }
+    
+    @Test
+    public void testAnalyzeGeneratedClass() throws Exception {
+        ClassPath classpath = ClassPath.of(System.getProperty("java.class.path").split(File.pathSeparator));
+        classpath.add(new GeneratedSource());
+        try {
+            Analyzer analyzer = new Analyzer(classpath, "gen.Caller");
+            ConcurrentDependencyVisitor dependencies = new ConcurrentDependencyVisitor();
+            CollectingVisitor visitor = new CollectingVisitor();
+            analyzer.setDependencyVisitor(dependencies);
+            analyzer.setLinkageVisitor(visitor);
+            analyzer.run();
+            Assert.assertTrue(dependencies.getSuccesses().contains("gen.Caller"));
+            Assert.assertEquals(1, visitor.unresolved.size());
+            Assert.assertEquals("gen.Caller.run()V oops.Permutations.missing ()V", visitor.unresolved.get(0));
+        } finally {
+            classpath.close();
+        }
+    }
+    
+    static class CollectingVisitor implements LinkageVisitor {
+        final List<String> unresolved = new ArrayList<String>();
+        
+        public void unresolved(String referrer, String method, String owner, String name, String desc) {
+            unresolved.add(referrer + "." + method + " " + owner + "." + name + " " + desc);
+        }
+    }
+    
+    /**
+     * Serves one generated class calling a method that exists and one that
+     * does not.
+     */
+    static class GeneratedSource implements ClassSource, Opcodes {
+        public String getLocation() {
+            return "generated";
+        }
+        
+        public boolean read(String name, ClassBuffer buffer) {
+            if (!name.equals("gen/Caller")) return false;
+            ClassWriter cw = new ClassWriter(0);
+            cw.visit(V1_5, ACC_PUBLIC, "gen/Caller", null, "java/lang/Object", null);
+            MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "run", "()V", null, null);
+            mv.visitCode();
+            mv.visitMethodInsn(INVOKESTATIC, "oops/Permutations", "missing", "()V");
+            mv.visitTypeInsn(NEW, "oops/Permutations");
+            mv.visitInsn(DUP);
+            mv.visitMethodInsn(INVOKESPECIAL, "oops/Permutations", "<init>", "()V");
+            mv.visitMethodInsn(INVOKEVIRTUAL, "oops/Permutations", "hashCode", "()I");
+            mv.visitInsn(POP);
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(2, 0);
+            mv.visitEnd();
+            cw.visitEnd();
+            byte[] bytes = cw.toByteArray();
+            System.arraycopy(bytes, 0, buffer.reserve(bytes.length), 0, bytes.length);
+            return true;
+        }
+        
+        public void close() {
+        }
+    }
+}
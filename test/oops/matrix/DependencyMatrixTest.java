@@ -0,0 +1,73 @@
+package oops.matrix;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.Analyzer;
+import oops.Enumeration;
+import oops.FieldTypeReference;
+import oops.TestClasses;
+import oops.TypeInEnumeration;
+import oops.classpath.ClassPath;
+import oops.classpath.MemorySource;
+import oops.classpath.PlatformIndex;
+import oops.util.ConcurrentDependencyVisitor;
+
+/**
+ * Test that references are counted between the entries their classes were
+ * read from, whether the referenced class was read before or after.
+ */
+public class DependencyMatrixTest {
+    @Test
+    public void testWaitingReferences() throws Exception {
+        ClassPath classpath = ClassPath.of(PlatformIndex.current());
+        classpath.add(new MemorySource("a"));
+        classpath.add(new MemorySource("b"));
+        DependencyMatrix matrix = new DependencyMatrix(classpath);
+        Assert.assertEquals(Arrays.asList("a", "b", PlatformIndex.current().getDescription(), "missing"), matrix.getEntries());
+        
+        matrix.reference(0, 7);
+        matrix.reference(0, 7);
+        Assert.assertEquals(0, matrix.get(0, 1));
+        matrix.found(7, 1, false);
+        Assert.assertEquals(2, matrix.get(0, 1));
+        matrix.reference(0, 7);
+        Assert.assertEquals(3, matrix.get(0, 1));
+        matrix.found(8, matrix.getMissingEntry(), false);
+        matrix.reference(1, 8);
+        Assert.assertEquals(1, matrix.get(1, matrix.getMissingEntry()));
+        Assert.assertEquals(Arrays.asList("a"), matrix.getUnreferenced());
+    }
+    
+    @Test
+    public void testAnalysis() throws Exception {
+        MemorySource app = new MemorySource("app");
+        app.put(TestClasses.bytes(Enumeration.class));
+        MemorySource lib = new MemorySource("lib");
+        lib.put(TestClasses.bytes(TypeInEnumeration.class));
+        MemorySource unused = new MemorySource("unused");
+        unused.put(TestClasses.bytes(FieldTypeReference.class));
+        ClassPath classpath = ClassPath.of(PlatformIndex.current());
+        classpath.add(app);
+        classpath.add(lib);
+        classpath.add(unused);
+        
+        DependencyMatrix matrix = new DependencyMatrix(classpath);
+        Analyzer analyzer = new Analyzer(classpath, "oops.Enumeration");
+        ConcurrentDependencyVisitor results = new ConcurrentDependencyVisitor();
+        analyzer.setDependencyVisitor(results);
+        analyzer.setDependencyMatrix(matrix);
+        analyzer.run();
+        Assert.assertTrue(results.await(10, TimeUnit.SECONDS));
+        
+        Assert.assertEquals(1, matrix.get(0, 1));
+        Assert.assertTrue(matrix.get(0, matrix.getPlatformEntry()) > 0);
+        Assert.assertTrue(matrix.get(1, matrix.getPlatformEntry()) > 0);
+        Assert.assertEquals(0, matrix.get(0, matrix.getMissingEntry()));
+        Assert.assertEquals(0, matrix.get(1, 0));
+        Assert.assertEquals(Arrays.asList("unused"), matrix.getUnreferenced());
+    }
+}
@@ -0,0 +1,52 @@
+package oops.shard;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.Analysis;
+import oops.Analyzer;
+import oops.classpath.ClassPath;
+
+/**
+ * Test that a sharded analysis finds the same classes as one process.
+ */
+public class ShardCoordinatorTest {
+    @Test
+    public void testShardOf() {
+        for (String name : new String[] {"oops/Analyzer", "java/lang/Object", "a/Missing1"}) {
+            int shard = ShardCoordinator.shardOf(name, 3);
+            Assert.assertTrue(shard >= 0 && shard < 3);
+            Assert.assertEquals(shard, ShardCoordinator.shardOf(name, 3));
+        }
+        Assert.assertEquals(0, ShardCoordinator.shardOf("oops/Analyzer", 1));
+    }
+
+    @Test
+    public void testMatchesSingleProcess() throws Exception {
+        String path = System.getProperty("java.class.path");
+        ClassPath classpath = ClassPath.of(path.split(File.pathSeparator));
+        Analysis analysis = new Analyzer(classpath, "oops.Permutations", "a.Missing1").start();
+        Assert.assertTrue(analysis.await(60, TimeUnit.SECONDS));
+        classpath.close();
+
+        ShardCoordinator coordinator = new ShardCoordinator(2, path, null);
+        coordinator.run(Arrays.asList("oops.Permutations", "a.Missing1"));
+        Assert.assertEquals(analysis.getSuccesses(), coordinator.getSuccesses());
+        Assert.assertEquals(analysis.getFailures(), coordinator.getFailures());
+        Assert.assertTrue(coordinator.getFailures().contains("a.Missing1"));
+        Assert.assertFalse(coordinator.isFailedFast());
+    }
+
+    @Test
+    public void testFailFast() throws Exception {
+        ShardCoordinator coordinator = new ShardCoordinator(2, System.getProperty("java.class.path"), null);
+        coordinator.setFailFast(1);
+        coordinator.run(Arrays.asList("oops.Permutations", "a.Missing1", "a.Missing2", "a.Missing3"));
+        Assert.assertTrue(coordinator.isFailedFast());
+        Assert.assertEquals(1, coordinator.getFailures().size());
+    }
+}
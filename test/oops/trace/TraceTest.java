@@ -0,0 +1,79 @@
+package oops.trace;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.FieldTypeReference;
+import oops.ReferenceExtractor;
+import oops.ReturnTypeReference;
+import oops.TestClasses;
+
+/**
+ * Test that tracing is switched by category and class name prefix, and
+ * that buffers keep only their most recent events.
+ */
+public class TraceTest {
+    private static String extractTraced(Class<?>... classes) throws Exception {
+        ReferenceExtractor extractor = new ReferenceExtractor();
+        for (Class<?> clazz : classes) {
+            byte[] b = TestClasses.bytes(clazz);
+            extractor.extract(b, 0, b.length);
+        }
+        StringBuilder out = new StringBuilder();
+        Trace.dump(out);
+        return out.toString();
+    }
+    
+    @Test
+    public void testSwitching() throws Exception {
+        try {
+            Trace.clear();
+            Assert.assertEquals("", extractTraced(FieldTypeReference.class));
+            
+            Trace.enable(Trace.CLASS, "oops.FieldType");
+            String trace = extractTraced(FieldTypeReference.class, ReturnTypeReference.class);
+            Assert.assertTrue(trace.contains("oops/FieldTypeReference class.visit "));
+            Assert.assertFalse(trace.contains("oops/ReturnTypeReference"));
+            Assert.assertFalse(trace.contains(" method."));
+            
+            Trace.clear();
+            Trace.enable(Trace.parseCategories("method"));
+            trace = extractTraced(ReturnTypeReference.class);
+            Assert.assertTrue(trace.contains("oops/ReturnTypeReference method."));
+            Assert.assertFalse(trace.contains(" class."));
+        } finally {
+            Trace.disable();
+            Trace.clear();
+        }
+    }
+    
+    @Test
+    public void testRing() throws Exception {
+        TraceBuffer buffer = new TraceBuffer("t", 3);
+        for (int i = 0; i < 5; ++i) {
+            buffer.record("a/A", "event" + i, Integer.valueOf(i), null, new String[] {"x"});
+        }
+        StringBuilder out = new StringBuilder();
+        buffer.dump(out);
+        Assert.assertEquals("t: 2 older events dropped\n"
+            + "t a/A event2 2 [x]\nt a/A event3 3 [x]\nt a/A event4 4 [x]\n", out.toString());
+        Assert.assertEquals(5, buffer.getCount());
+    }
+    
+    @Test
+    public void testCopiesArguments() throws Exception {
+        //ASM passes the same frame arrays to every visitFrame call
+        Object[] locals = {"a/A", Integer.valueOf(1)};
+        TraceBuffer buffer = new TraceBuffer("t", 4);
+        buffer.record("a/A", "method.visitFrame", locals, Boolean.TRUE, Double.valueOf(0.5));
+        locals[0] = "b/B";
+        StringBuilder out = new StringBuilder();
+        buffer.dump(out);
+        Assert.assertEquals("t a/A method.visitFrame [a/A, 1] true 0.5\n", out.toString());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownCategory() {
+        Trace.parseCategories("class,bogus");
+    }
+}
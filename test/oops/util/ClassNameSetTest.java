@@ -0,0 +1,89 @@
+package oops.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test lookups, ordering and set operations of the front coded ClassNameSet.
+ */
+public class ClassNameSetTest {
+    private static TreeSet<String> randomNames(Random random, int count) {
+        String[] packages = {"java.lang.", "java.util.", "java.util.concurrent.", "org.objectweb.asm.", "oops.", "oops.util."};
+        TreeSet<String> names = new TreeSet<String>();
+        while (names.size() < count) {
+            String pkg = packages[random.nextInt(packages.length)];
+            names.add(pkg + "Class" + random.nextInt(count * 4) + (random.nextBoolean() ? "$Inner" : ""));
+        }
+        return names;
+    }
+    
+    @Test
+    public void testContainsAndOrder() {
+        TreeSet<String> expected = randomNames(new Random(7), 5000);
+        List<String> shuffled = new ArrayList<String>(expected);
+        shuffled.addAll(expected);
+        java.util.Collections.shuffle(shuffled, new Random(3));
+        ClassNameSet set = new ClassNameSet(shuffled);
+        
+        Assert.assertEquals(expected.size(), set.size());
+        Assert.assertEquals(new ArrayList<String>(expected), new ArrayList<String>(set));
+        for (String name : expected) {
+            Assert.assertTrue(set.contains(name));
+            Assert.assertFalse(set.contains(name + "X"));
+        }
+        Assert.assertFalse(set.contains("a"));
+        Assert.assertFalse(set.contains("zzz"));
+        Assert.assertTrue(set.encodedSize() < expected.size() * 12);
+    }
+    
+    @Test
+    public void testPrefix() {
+        TreeSet<String> expected = randomNames(new Random(11), 2000);
+        ClassNameSet set = new ClassNameSet(expected);
+        for (String prefix : new String[] {"java.util.", "oops.", "oops.util.", "org.", "com.", ""}) {
+            List<String> found = new ArrayList<String>();
+            for (String name : set.withPrefix(prefix)) found.add(name);
+            List<String> wanted = new ArrayList<String>();
+            for (String name : expected) if (name.startsWith(prefix)) wanted.add(name);
+            Assert.assertEquals(wanted, found);
+        }
+    }
+    
+    @Test
+    public void testDifference() {
+        Random random = new Random(5);
+        TreeSet<String> a = randomNames(random, 3000);
+        TreeSet<String> b = randomNames(random, 3000);
+        TreeSet<String> expected = new TreeSet<String>(a);
+        expected.removeAll(b);
+        ClassNameSet diff = new ClassNameSet(a).difference(new ClassNameSet(b));
+        Assert.assertEquals(new ArrayList<String>(expected), new ArrayList<String>(diff));
+        Assert.assertTrue(diff.containsAll(expected));
+        
+        Assert.assertEquals(0, ClassNameSet.EMPTY.size());
+        Assert.assertEquals(a.size(), new ClassNameSet(a).difference(ClassNameSet.EMPTY).size());
+        Iterator<String> none = new ClassNameSet(Arrays.asList("x")).difference(new ClassNameSet(Arrays.asList("x"))).iterator();
+        Assert.assertFalse(none.hasNext());
+    }
+    
+    @Test
+    public void testSerialization() throws Exception {
+        TreeSet<String> expected = randomNames(new Random(13), 1000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new ClassNameSet(expected).writeTo(new DataOutputStream(bytes));
+        ClassNameSet read = ClassNameSet.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertEquals(new ArrayList<String>(expected), new ArrayList<String>(read));
+        Assert.assertTrue(read.contains(expected.first()));
+    }
+}
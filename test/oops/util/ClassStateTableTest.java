@@ -0,0 +1,101 @@
+package oops.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the id assignment of the ClassIndex and the state transitions of the
+ * ClassStateTable.
+ */
+public class ClassStateTableTest {
+    @Test
+    public void testIntern() {
+        ClassIndex index = new ClassIndex();
+        for (int i = 0; i < 100000; ++i) {
+            Assert.assertEquals(i, index.intern("pkg/Class" + i));
+        }
+        for (int i = 0; i < 100000; ++i) {
+            Assert.assertEquals(i, index.intern("pkg/Class" + i));
+            Assert.assertEquals(i, index.get("pkg/Class" + i));
+            Assert.assertEquals("pkg/Class" + i, index.name(i));
+        }
+        Assert.assertEquals(-1, index.get("pkg/Missing"));
+        Assert.assertNull(index.name(100000));
+        Assert.assertEquals(100000, index.size());
+    }
+    
+    @Test
+    public void testTransitions() {
+        ClassStateTable table = new ClassStateTable();
+        Assert.assertEquals(ClassStateTable.UNSEEN, table.get(5000000));
+        Assert.assertTrue(table.claim(31));
+        Assert.assertFalse(table.claim(31));
+        Assert.assertEquals(ClassStateTable.UNSEEN, table.get(30));
+        Assert.assertEquals(ClassStateTable.UNSEEN, table.get(32));
+        Assert.assertTrue(table.compareAndSet(31, ClassStateTable.CLAIMED, ClassStateTable.FAILED));
+        Assert.assertFalse(table.compareAndSet(31, ClassStateTable.CLAIMED, ClassStateTable.PARSED));
+        Assert.assertEquals(ClassStateTable.FAILED, table.get(31));
+    }
+    
+    @Test
+    public void testConcurrentClaims() throws Exception {
+        final ClassIndex index = new ClassIndex();
+        final ClassStateTable table = new ClassStateTable();
+        final AtomicInteger claims = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    for (int i = 0; i < 20000; ++i) {
+                        if (table.claim(index.intern("pkg/Class" + i)))
+                            claims.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        Assert.assertEquals(20000, claims.get());
+        Assert.assertEquals(20000, index.size());
+    }
+    
+    @Test
+    public void testGetWhileGrowing() throws Exception {
+        final ClassIndex index = new ClassIndex();
+        final AtomicInteger interned = new AtomicInteger(-1);
+        final AtomicInteger misses = new AtomicInteger();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; ++t) {
+            readers[t] = new Thread() {
+                public void run() {
+                    int last;
+                    do {
+                        last = interned.get();
+                        //every name interned so far is found, through any
+                        //number of segment doublings
+                        for (int i = last; i >= 0 && i > last - 64; --i) {
+                            if (index.get("pkg/Class" + i) != i) misses.incrementAndGet();
+                        }
+                    } while (last < 99999);
+                }
+            };
+            readers[t].start();
+        }
+        for (int i = 0; i < 100000; ++i) {
+            index.intern("pkg/Class" + i);
+            interned.set(i);
+        }
+        for (Thread reader : readers) reader.join();
+        Assert.assertEquals(0, misses.get());
+    }
+}
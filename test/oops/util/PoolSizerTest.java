@@ -0,0 +1,58 @@
+package oops.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test that the pool sizer follows the measured wait to compute ratio
+ * within its bounds.
+ */
+public class PoolSizerTest {
+    private static void record(PoolSizer sizer, long wait, long compute) {
+        for (int i = 0; i < 100; ++i) {
+            sizer.record(wait, compute);
+        }
+    }
+    
+    @Test
+    public void testComputeBound() {
+        PoolSizer sizer = new PoolSizer(4, 2, 64);
+        int size = 16;
+        for (int i = 0; i < 10; ++i) {
+            record(sizer, 0, 1000);
+            size = sizer.resize(size);
+        }
+        Assert.assertEquals(4, size);
+    }
+    
+    @Test
+    public void testIoBound() {
+        PoolSizer sizer = new PoolSizer(4, 2, 64);
+        int size = 16;
+        size = sizer.resize(size);
+        Assert.assertEquals("too few samples to resize", 16, size);
+        for (int i = 0; i < 10; ++i) {
+            record(sizer, 7000, 1000);
+            size = sizer.resize(size);
+        }
+        Assert.assertEquals(32, size);
+        for (int i = 0; i < 10; ++i) {
+            record(sizer, 100000, 1000);
+            size = sizer.resize(size);
+        }
+        Assert.assertEquals(64, size);
+    }
+    
+    @Test
+    public void testBounds() {
+        PoolSizer sizer = new PoolSizer(4, 8, 12);
+        Assert.assertEquals(8, sizer.resize(1));
+        Assert.assertEquals(12, sizer.resize(100));
+        try {
+            sizer.setBounds(4, 2);
+            Assert.fail();
+        } catch (IllegalArgumentException iae) {
+            //expected
+        }
+    }
+}
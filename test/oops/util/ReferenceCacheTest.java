@@ -0,0 +1,128 @@
+package oops.util;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import oops.Analyzer;
+import oops.FieldTypeReference;
+import oops.ReferenceExtractor;
+import oops.ReturnTypeReference;
+import oops.TestClasses;
+import oops.classpath.ClassPath;
+import oops.classpath.PlatformIndex;
+
+/**
+ * Test that the reference cache parses each class file once, evicts within
+ * its budget and is shared by analyzers.
+ */
+public class ReferenceCacheTest {
+    /**
+     * An extractor that counts its calls and takes its time about them.
+     */
+    static class CountingExtractor extends ReferenceExtractor {
+        final AtomicInteger calls;
+        
+        CountingExtractor(AtomicInteger calls) {
+            this.calls = calls;
+        }
+        
+        @Override
+        public List<String> extract(byte[] b, int off, int len) {
+            calls.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            return super.extract(b, off, len);
+        }
+    }
+    
+    @Test
+    public void testHitsAndChanges() throws Exception {
+        byte[] b = TestClasses.bytes(FieldTypeReference.class);
+        AtomicInteger calls = new AtomicInteger();
+        ReferenceExtractor extractor = new CountingExtractor(calls);
+        ReferenceCache cache = new ReferenceCache(1 << 20);
+        
+        List<String> first = cache.get("oops/FieldTypeReference", b, 0, b.length, extractor);
+        Assert.assertFalse(first.isEmpty());
+        Assert.assertEquals(first, cache.get("oops/FieldTypeReference", b, 0, b.length, extractor));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        
+        //different bytes under the same name are parsed again
+        byte[] other = TestClasses.bytes(ReturnTypeReference.class);
+        cache.get("oops/FieldTypeReference", other, 0, other.length, extractor);
+        Assert.assertEquals(2, calls.get());
+        Assert.assertEquals(2, cache.getCount());
+    }
+    
+    @Test
+    public void testEviction() throws Exception {
+        byte[] b = TestClasses.bytes(FieldTypeReference.class);
+        ReferenceExtractor extractor = new ReferenceExtractor();
+        ReferenceCache cache = new ReferenceCache(4096);
+        for (int i = 0; i < 100; ++i) {
+            cache.get("pkg/Class" + i, b, 0, b.length, extractor);
+        }
+        Assert.assertTrue(cache.getSize() <= 4096);
+        Assert.assertTrue(cache.getEvictions() > 0);
+        Assert.assertEquals(100 - cache.getEvictions(), cache.getCount());
+    }
+    
+    @Test
+    public void testSingleFlight() throws Exception {
+        final byte[] b = TestClasses.bytes(FieldTypeReference.class);
+        final AtomicInteger calls = new AtomicInteger();
+        final ReferenceCache cache = new ReferenceCache(1 << 20);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t] = new Thread() {
+                public void run() {
+                    ReferenceExtractor extractor = new CountingExtractor(calls);
+                    try {
+                        start.await();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    cache.get("oops/FieldTypeReference", b, 0, b.length, extractor);
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(7, cache.getHits());
+    }
+    
+    @Test
+    public void testSharedByAnalyzers() throws Exception {
+        ReferenceCache cache = new ReferenceCache(1 << 24);
+        //platform classes are not parsed, so every parse is of a test class
+        ClassPath classpath = ClassPath.of(PlatformIndex.current(),
+            System.getProperty("java.class.path").split(File.pathSeparator));
+        Analyzer first = new Analyzer(classpath, "oops.Permutations");
+        first.setReferenceCache(cache);
+        Assert.assertTrue(first.start().getFailures().isEmpty());
+        long misses = cache.getMisses();
+        Assert.assertTrue(misses > 0);
+        
+        Analyzer second = new Analyzer(classpath, "oops.Permutations");
+        second.setReferenceCache(cache);
+        Assert.assertTrue(second.start().getSuccesses().contains("oops.FieldTypeReference"));
+        Assert.assertEquals(misses, cache.getMisses());
+        Assert.assertTrue(cache.getHits() >= misses);
+        classpath.close();
+    }
+}